@@ -0,0 +1,193 @@
+package co.oym.geokitandroid;
+
+import java.util.Locale;
+
+/**
+ * An autocomplete session, for suggesting places while the user is typing. <br>
+ * Each request supersedes the previous one: the call of the previous request is canceled, and only the response of the newest request is
+ * given to the callback. The callback is called without holding any lock of the session: a response arriving while a newer request is
+ * issued from another thread may still be given to it. <br>
+ * When a previous response was complete (totalHits &lt;= maxResponses) and the new text extends its text, the new request is answered locally
+ * by filtering the previous suggests, on the calling thread and without any call. Note that the range of a locally filtered suggest still
+ * refers to the previous text. <br>
+ * Get a session from WSClient.PlaceWS.autocompleteSession().
+ */
+public class AutocompleteSession {
+
+	private final WSClient client;
+	private final String appKey;
+	private final WSCallback<Place.AutocompleteResponse> callback;
+
+	private long generation;
+	private WSClient.DownloadTask<Place.AutocompleteResponse> pending;
+	/** The last complete response and its request, for answering longer texts locally **/
+	private Place.AutocompleteRequest completeRequest;
+	private Place.AutocompleteResponse completeResponse;
+
+	private long remoteCount;
+	private long localCount;
+
+	AutocompleteSession(WSClient client, String appKey, WSCallback<Place.AutocompleteResponse> callback) {
+		this.client = client;
+		this.appKey = appKey;
+		this.callback = callback;
+	}
+
+	/**
+	 * Get suggests for a new text, superseding the previous request of this session.
+	 * @param request
+	 */
+	public void autocomplete(Place.AutocompleteRequest request) {
+		final Place.AutocompleteRequest snapshot = request.copy();
+		final long current;
+		WSClient.DownloadTask<Place.AutocompleteResponse> superseded;
+		Place.AutocompleteResponse local;
+
+		synchronized (this) {
+			current = ++generation;
+			superseded = pending;
+			pending = null;
+
+			local = filterLocally(snapshot);
+			if (local != null) {
+				localCount++;
+			} else {
+				remoteCount++;
+			}
+		}
+		if (superseded != null) {
+			superseded.cancel();
+		}
+		// the callback is called outside the lock, so it can use this session from any thread
+		if (local != null) {
+			callback.onResponse(local);
+			return;
+		}
+
+		WSClient.DownloadTask<Place.AutocompleteResponse> task = client.enqueue(WSClient.PLACE_AUTOCOMPLETE, appKey, snapshot, Place.AutocompleteResponse.class,
+				new WSCallback<Place.AutocompleteResponse>() {
+					public void onResponse(Place.AutocompleteResponse response) {
+						synchronized (AutocompleteSession.this) {
+							if (current != generation) {
+								return;
+							}
+							pending = null;
+							if (response != null && response.totalHits <= snapshot.maxResponses && snapshot.place != null) {
+								completeRequest = snapshot;
+								completeResponse = response;
+							}
+						}
+						callback.onResponse(response);
+					}
+
+					public void onFailure(String errorMessage) {
+						synchronized (AutocompleteSession.this) {
+							if (current != generation) {
+								return;
+							}
+							pending = null;
+						}
+						callback.onFailure(errorMessage);
+					}
+				});
+
+		synchronized (this) {
+			if (current == generation) {
+				pending = task;
+				return;
+			}
+		}
+		// already superseded
+		task.cancel();
+	}
+
+	/**
+	 * Cancel the pending request, if any. The local suggests are kept.
+	 */
+	public void cancel() {
+		WSClient.DownloadTask<Place.AutocompleteResponse> superseded;
+		synchronized (this) {
+			generation++;
+			superseded = pending;
+			pending = null;
+		}
+		if (superseded != null) {
+			superseded.cancel();
+		}
+	}
+
+	/**
+	 * @return the number of requests sent to the Web Service
+	 */
+	public synchronized long remoteCount() {
+		return remoteCount;
+	}
+
+	/**
+	 * @return the number of requests answered locally
+	 */
+	public synchronized long localCount() {
+		return localCount;
+	}
+
+	/**
+	 * Tells if a suggest matches a text. By default every word of the text must start a word of the suggested place, ignoring case.
+	 * Override this method if the server side profile matches differently.
+	 * @param text the lower-cased text
+	 * @param suggest
+	 * @return
+	 */
+	protected boolean matches(String text, Place.Suggest suggest) {
+		if (suggest.place == null) {
+			return false;
+		}
+		String place = suggest.place.toLowerCase(Locale.ROOT);
+		for (String word : text.split("\\s+")) {
+			if (word.length() > 0 && !startsWord(place, word)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean startsWord(String place, String word) {
+		int from = 0;
+		int i;
+		while ((i = place.indexOf(word, from)) >= 0) {
+			if (i == 0 || !Character.isLetterOrDigit(place.charAt(i - 1))) {
+				return true;
+			}
+			from = i + 1;
+		}
+		return false;
+	}
+
+	private Place.AutocompleteResponse filterLocally(Place.AutocompleteRequest request) {
+		if (completeResponse == null || request.place == null) {
+			return null;
+		}
+		if (!equals(request.profile, completeRequest.profile)) {
+			return null;
+		}
+		String text = request.place.toLowerCase(Locale.ROOT);
+		if (!text.startsWith(completeRequest.place.toLowerCase(Locale.ROOT))) {
+			return null;
+		}
+
+		Place.AutocompleteResponse response = new Place.AutocompleteResponse();
+		response.status = completeResponse.status;
+		for (Place.Suggest suggest : completeResponse.suggests) {
+			if (matches(text, suggest)) {
+				response.totalHits++;
+				if (response.suggests.size() < request.maxResponses) {
+					response.suggests.add(suggest);
+				}
+			}
+		}
+		return response;
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
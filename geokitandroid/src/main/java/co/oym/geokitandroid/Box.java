@@ -12,6 +12,18 @@ public class Box {
 	public double south;
 	public double west;
 
+	/**
+	 * @return a copy of this box
+	 */
+	public Box copy() {
+		Box copy = new Box();
+		copy.north = north;
+		copy.east = east;
+		copy.south = south;
+		copy.west = west;
+		return copy;
+	}
+
 	@Override
 	public String toString() {
 		return "Box{" +
@@ -78,6 +78,55 @@ public class Place {
 		/** Places with provided favorite country will be better ranked **/
 		public String favoriteCountry;
 
+		/**
+		 * @return a copy of this request, unaffected by later changes to this one
+		 */
+		public SearchRequest copy() {
+			SearchRequest copy = new SearchRequest();
+			copy.maxResponses = maxResponses;
+			copy.country = country;
+			copy.locality = locality;
+			copy.adminArea = adminArea;
+			copy.postcode = postcode;
+			copy.address = address;
+			copy.lang = lang;
+			copy.viewport = viewport != null ? viewport.copy() : null;
+			copy.favoriteCountry = favoriteCountry;
+			return copy;
+		}
+
+		/**
+		 * A normalized key for caching the response of this request: text fields are trimmed and lower-cased, and the viewport is rounded to a grid.
+		 * @param viewportGrid the grid size in degrees
+		 * @return
+		 */
+		public String cacheKey(double viewportGrid) {
+			StringBuilder key = new StringBuilder(64);
+			key.append(maxResponses);
+			appendKey(key, country);
+			appendKey(key, locality);
+			appendKey(key, adminArea);
+			appendKey(key, postcode);
+			appendKey(key, address);
+			appendKey(key, lang);
+			appendKey(key, favoriteCountry);
+			key.append('|');
+			if (viewport != null) {
+				key.append(Math.round(viewport.north / viewportGrid)).append(',')
+						.append(Math.round(viewport.east / viewportGrid)).append(',')
+						.append(Math.round(viewport.south / viewportGrid)).append(',')
+						.append(Math.round(viewport.west / viewportGrid));
+			}
+			return key.toString();
+		}
+
+		private static void appendKey(StringBuilder key, String value) {
+			key.append('|');
+			if (value != null) {
+				key.append(value.trim().replaceAll("\\s+", " ").toLowerCase(java.util.Locale.ROOT));
+			}
+		}
+
 		@Override
 		public String toString() {
 			return "SearchRequest{" +
@@ -131,6 +180,34 @@ public class Place {
 		/** The output language **/
 		public String lang;
 
+		/**
+		 * @return a copy of this request, unaffected by later changes to this one
+		 */
+		public NearestRequest copy() {
+			NearestRequest copy = new NearestRequest();
+			copy.maxResponses = maxResponses;
+			copy.location = location != null ? new LatLng(location.getLatitude(), location.getLongitude()) : null;
+			copy.radius = radius;
+			copy.lang = lang;
+			return copy;
+		}
+
+		/**
+		 * A key identifying the grid cell of the location, with the other parameters of this request. <br>
+		 * Cells are about cellSize meters wide, in latitude rows whose longitude step is adjusted to the row latitude.
+		 * @param cellSize the cell size in meters
+		 * @return
+		 */
+		public String cellKey(double cellSize) {
+			final double metersPerDegree = 111320;
+			double latStep = cellSize / metersPerDegree;
+			long row = (long) Math.floor(location.getLatitude() / latStep);
+			double rowLatitude = (row + 0.5) * latStep;
+			double lngStep = latStep / Math.max(Math.cos(Math.toRadians(rowLatitude)), 1e-6);
+			long col = (long) Math.floor(location.getLongitude() / lngStep);
+			return row + "," + col + "|" + radius + "|" + maxResponses + "|" + lang;
+		}
+
 		@Override
 		public String toString() {
 			return "NearestRequest{" +
@@ -177,6 +254,17 @@ public class Place {
 		/** The server side profile id to rank suggests (sort/filtering) **/
 		public String profile = null;
 
+		/**
+		 * @return a copy of this request, unaffected by later changes to this one
+		 */
+		public AutocompleteRequest copy() {
+			AutocompleteRequest copy = new AutocompleteRequest();
+			copy.maxResponses = maxResponses;
+			copy.place = place;
+			copy.profile = profile;
+			return copy;
+		}
+
 		@Override
 		public String toString() {
 			return "AutocompleteRequest{" +
@@ -1,5 +1,6 @@
 package co.oym.geokitandroid;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.mapbox.mapboxsdk.geometry.BoundingBox;
 import com.mapbox.mapboxsdk.geometry.LatLng;
 
@@ -33,6 +34,29 @@ public class Route {
 		public int transportMode = TM_FASTEST_CAR;
 		/** The distance unit: Route.Request.UNIT_KM or Route.Request.UNIT_MILES **/
 		public String distanceUnit = UNIT_KM;
+
+		/**
+		 * @return a copy of this request, unaffected by later changes to this one
+		 */
+		public Request copy() {
+			Request copy = new Request();
+			copy.start = copy(start);
+			copy.end = copy(end);
+			if (vias != null) {
+				copy.vias = new java.util.ArrayList<LatLng>(vias.size());
+				for (LatLng via : vias) {
+					copy.vias.add(copy(via));
+				}
+			}
+			copy.transportMode = transportMode;
+			copy.distanceUnit = distanceUnit;
+			return copy;
+		}
+
+		private static LatLng copy(LatLng position) {
+			// the altitude is never sent
+			return position != null ? new LatLng(position.getLatitude(), position.getLongitude()) : null;
+		}
 	}
 
 	/**
@@ -55,9 +79,9 @@ public class Route {
 		public java.util.List<Via> vias;
 		/** The bounds of the route **/
 		public BoundingBox bounds;
-		/** The list of points for the route **/
+		/** The list of points for the route, a Route.Polyline when WSClient.setPackedGeometry() is enabled **/
 		public java.util.List<LatLng> positions;
-		/** A list of bitmask for each points in positions list **/
+		/** A list of bitmask for each points in positions list, a Route.Levels when WSClient.setPackedGeometry() is enabled **/
 		public java.util.List<Integer> levels;
 
 		@Override
@@ -77,6 +101,31 @@ public class Route {
 		}
 	}
 
+	/**
+	 * A Route response summary, for decoding a directions response without its instructions and geometry.
+	 */
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Summary {
+		/** A unique identifier for this route **/
+		public String routeKey;
+		/** The distance unit: Route.Request.UNIT_KM or Route.Request.UNIT_MILES **/
+		public String distanceUnit;
+		/** The total length of the route, depending on distanceUnit **/
+		public float length;
+		/** The total time of the route, in minutes **/
+		public float time;
+
+		@Override
+		public String toString() {
+			return "Summary{" +
+					"routeKey='" + routeKey + '\'' +
+					", distanceUnit='" + distanceUnit + '\'' +
+					", length=" + length +
+					", time=" + time +
+					'}';
+		}
+	}
+
 	/**
 	 * A Route instruction.
 	 */
@@ -155,6 +204,128 @@ public class Route {
 		}
 	}
 
+	/**
+	 * The points of a route packed in a double array, as a read-only list. <br>
+	 * The coordinates are read without copy with getLatitude(), getLongitude() or coordinates(). A LatLng is only built when get() is called,
+	 * and is not kept.
+	 */
+	public static class Polyline extends java.util.AbstractList<LatLng> implements java.util.RandomAccess {
+		/** The latitude and longitude of each point, one after the other **/
+		private final double[] coordinates;
+
+		/**
+		 *
+		 * @param coordinates the latitude and longitude of each point, one after the other. The array is not copied.
+		 */
+		public Polyline(double[] coordinates) {
+			if (coordinates.length % 2 != 0) {
+				throw new IllegalArgumentException("odd coordinates length: " + coordinates.length);
+			}
+			this.coordinates = coordinates;
+		}
+
+		/**
+		 * @param positions
+		 * @return positions if it is a Polyline, else a Polyline with a copy of its coordinates, or null if positions is null
+		 */
+		public static Polyline of(java.util.List<LatLng> positions) {
+			if (positions == null || positions instanceof Polyline) {
+				return (Polyline) positions;
+			}
+			double[] coordinates = new double[positions.size() * 2];
+			int i = 0;
+			for (LatLng position : positions) {
+				coordinates[i++] = position.getLatitude();
+				coordinates[i++] = position.getLongitude();
+			}
+			return new Polyline(coordinates);
+		}
+
+		@Override
+		public int size() {
+			return coordinates.length / 2;
+		}
+
+		@Override
+		public LatLng get(int index) {
+			return new LatLng(getLatitude(index), getLongitude(index));
+		}
+
+		public double getLatitude(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+			}
+			return coordinates[index * 2];
+		}
+
+		public double getLongitude(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("index: " + index + ", size: " + size());
+			}
+			return coordinates[index * 2 + 1];
+		}
+
+		/**
+		 * @return the latitude and longitude of each point, one after the other. The array is shared: it must not be modified.
+		 */
+		public double[] coordinates() {
+			return coordinates;
+		}
+	}
+
+	/**
+	 * The display levels of the points of a route packed in an int array, as a read-only list. <br>
+	 * The levels are read without boxing with getInt() or values().
+	 */
+	public static class Levels extends java.util.AbstractList<Integer> implements java.util.RandomAccess {
+		private final int[] values;
+
+		/**
+		 *
+		 * @param values the level of each point. The array is not copied.
+		 */
+		public Levels(int[] values) {
+			this.values = values;
+		}
+
+		/**
+		 * @param levels
+		 * @return levels if it is a Levels, else a Levels with a copy of its values, or null if levels is null
+		 */
+		public static Levels of(java.util.List<Integer> levels) {
+			if (levels == null || levels instanceof Levels) {
+				return (Levels) levels;
+			}
+			int[] values = new int[levels.size()];
+			int i = 0;
+			for (Integer level : levels) {
+				values[i++] = level != null ? level : 0;
+			}
+			return new Levels(values);
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+
+		@Override
+		public Integer get(int index) {
+			return values[index];
+		}
+
+		public int getInt(int index) {
+			return values[index];
+		}
+
+		/**
+		 * @return the level of each point. The array is shared: it must not be modified.
+		 */
+		public int[] values() {
+			return values;
+		}
+	}
+
 	/**
 	 * Some utility methods to decode route isntructions into human readable format
 	 */
@@ -178,14 +349,26 @@ public class Route {
 			bit 7 : level 12 + 13
 			bit 8 : level >= 14
 			*/
+			final int bitmask = displayLevelMask(zoomLevel);
+			return ((displayLevelValue & bitmask) == bitmask);
+		}
+
+		/**
+		 * The bit of the display level values a point must have to be displayed at a given zoom level.
+		 *
+		 * @param zoomLevel
+		 * @return the bitmask, 0 when every point is displayed
+		 */
+		public static int displayLevelMask(int zoomLevel) {
 			final int comparableZ = 16 - zoomLevel;
-			if (comparableZ < 14) {
-				int bitmask = (int) Math.pow(2, Math.floor(comparableZ / 2));
-				return ((displayLevelValue & bitmask) == bitmask);
-			} else {
-				int bitmask = (int) Math.pow(2, 14);
-				return ((displayLevelValue & bitmask) == bitmask);
+			if (comparableZ >= 14) {
+				return 1 << 14;
+			}
+			if (comparableZ < -1) {
+				// every point is displayed above zoom level 17
+				return 0;
 			}
+			return 1 << (comparableZ / 2);
 		}
 
 		//private static java.util.Map<String, String[]> lgResources = new java.util.HashMap<String, String[]>();
@@ -0,0 +1,291 @@
+package co.oym.geokitandroid;
+
+import com.mapbox.mapboxsdk.geometry.BoundingBox;
+
+/**
+ * A corridor around a route, for detecting within a fix or two that the user left it, before asking a new route. <br>
+ * The cells of a grid near the route are computed once, each with its class: inside the enter distance, or inside the exit distance.
+ * A fix is then classified with a single lookup in an open-addressing table, or none at all outside the bounds of the route. <br>
+ * The two distances give the hysteresis: a user on route leaves it when fixes are farther than the exit distance, and an off route user
+ * is back on it when a fix is nearer than the enter distance. Every point within a distance of the route is in its class, and a cell may
+ * reach up to a cell diagonal beyond it. <br>
+ * A corridor is not thread-safe: update and read it from the same thread.
+ */
+public class RouteCorridor {
+
+	/** The default distance from the route of a fix back on route, in meters **/
+	public static final double DEFAULT_ENTER_DISTANCE = 30;
+	/** The default distance from the route of a fix off route, in meters **/
+	public static final double DEFAULT_EXIT_DISTANCE = 60;
+	/** The default size of the grid cells, in meters **/
+	public static final double DEFAULT_CELL_SIZE = 20;
+	/** The default number of consecutive fixes off route before leaving the route **/
+	public static final int DEFAULT_CONFIRM_FIXES = 2;
+
+	/** The class of a location farther than the exit distance **/
+	public static final int OUTSIDE = 0;
+	/** The class of a location between the enter and the exit distance **/
+	public static final int BORDER = 1;
+	/** The class of a location nearer than the enter distance **/
+	public static final int INSIDE = 2;
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	/** The size of the grid cells in Web Mercator meters **/
+	private final double cellSize;
+	/** The bounds of the corridor in Web Mercator meters **/
+	private final double minX;
+	private final double maxX;
+	private final double minY;
+	private final double maxY;
+	private long[] cellKeys;
+	private byte[] cellClasses;
+	private int cellCount;
+
+	private int confirmFixes = DEFAULT_CONFIRM_FIXES;
+	private boolean onRoute = true;
+	private int outsideFixes;
+
+	/**
+	 * Creates a corridor with the default settings.
+	 * @param route a route response with its positions
+	 */
+	public RouteCorridor(Route.Response route) {
+		this(route, DEFAULT_ENTER_DISTANCE, DEFAULT_EXIT_DISTANCE, DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 *
+	 * @param route a route response with its positions, and its bounds if known
+	 * @param enterDistance the distance from the route of a fix back on route, in meters
+	 * @param exitDistance the distance from the route of a fix off route, in meters, at least enterDistance
+	 * @param cellSize the size of the grid cells in meters, at the middle latitude of the route. Smaller cells are more precise, but take
+	 *                 more memory.
+	 */
+	public RouteCorridor(Route.Response route, double enterDistance, double exitDistance, double cellSize) {
+		if (!(enterDistance >= 0) || exitDistance < enterDistance) {
+			throw new IllegalArgumentException("invalid distances: " + enterDistance + ", " + exitDistance);
+		}
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("invalid cellSize: " + cellSize);
+		}
+		Route.Polyline positions = Route.Polyline.of(route.positions);
+		int n = positions.size();
+		if (n == 0) {
+			throw new IllegalArgumentException("empty route");
+		}
+		// the bounds of the route, widened to its positions
+		double north = -90;
+		double south = 90;
+		double east = -180;
+		double west = 180;
+		BoundingBox bounds = route.bounds;
+		if (bounds != null) {
+			north = bounds.getLatNorth();
+			south = bounds.getLatSouth();
+			east = bounds.getLonEast();
+			west = bounds.getLonWest();
+		}
+		double[] mercator = new double[n * 2];
+		for (int i = 0; i < n; i++) {
+			double lat = positions.getLatitude(i);
+			double lng = positions.getLongitude(i);
+			mercator[i * 2] = RouteIndex.x(lng);
+			mercator[i * 2 + 1] = RouteIndex.y(lat);
+			north = Math.max(north, lat);
+			south = Math.min(south, lat);
+			east = Math.max(east, lng);
+			west = Math.min(west, lng);
+		}
+
+		this.cellSize = cellSize / Math.cos(Math.toRadians((north + south) / 2));
+		double halfDiagonal = this.cellSize * Math.sqrt(0.5);
+		// distances are converted in Web Mercator meters at the latitude farthest from the equator, where they are the longest, so no cell
+		// is missed. Cells may reach slightly farther at the other latitudes of long routes.
+		double scale = 1 / Math.cos(Math.toRadians(Math.max(Math.abs(north), Math.abs(south))));
+		double enter = enterDistance * scale + halfDiagonal;
+		double exit = exitDistance * scale + halfDiagonal;
+		double margin = exit + halfDiagonal;
+		minX = RouteIndex.x(west) - margin;
+		maxX = RouteIndex.x(east) + margin;
+		minY = RouteIndex.y(south) - margin;
+		maxY = RouteIndex.y(north) + margin;
+
+		cellKeys = new long[64];
+		cellClasses = new byte[64];
+		java.util.Arrays.fill(cellKeys, EMPTY);
+		int segments = Math.max(1, n - 1);
+		for (int s = 0; s < segments; s++) {
+			int a = s * 2;
+			int b = Math.min(s + 1, n - 1) * 2;
+			addSegment(mercator[a], mercator[a + 1], mercator[b], mercator[b + 1], enter, exit);
+		}
+	}
+
+	/**
+	 * Set the number of consecutive fixes farther than the exit distance before leaving the route.
+	 * @param confirmFixes at least 1
+	 */
+	public void setConfirmFixes(int confirmFixes) {
+		if (confirmFixes < 1) {
+			throw new IllegalArgumentException("confirmFixes < 1: " + confirmFixes);
+		}
+		this.confirmFixes = confirmFixes;
+	}
+
+	/**
+	 * @return the number of cells of the corridor
+	 */
+	public int cellCount() {
+		return cellCount;
+	}
+
+	/**
+	 * @param latitude
+	 * @param longitude
+	 * @return the class of a location: INSIDE, BORDER or OUTSIDE
+	 */
+	public int classify(double latitude, double longitude) {
+		double x = RouteIndex.x(longitude);
+		double y = RouteIndex.y(latitude);
+		if (x < minX || x > maxX || y < minY || y > maxY) {
+			return OUTSIDE;
+		}
+		int slot = find(RouteIndex.key(cell(x), cell(y)));
+		return slot >= 0 ? cellClasses[slot] : OUTSIDE;
+	}
+
+	/**
+	 * Classify a new location fix, and update the on route state.
+	 * @param latitude
+	 * @param longitude
+	 * @return true if the user is on route
+	 */
+	public boolean update(double latitude, double longitude) {
+		int c = classify(latitude, longitude);
+		if (onRoute) {
+			if (c == OUTSIDE) {
+				if (++outsideFixes >= confirmFixes) {
+					onRoute = false;
+				}
+			} else {
+				outsideFixes = 0;
+			}
+		} else if (c == INSIDE) {
+			onRoute = true;
+			outsideFixes = 0;
+		}
+		return onRoute;
+	}
+
+	/**
+	 * @return true if the user is on route, true before the first fix
+	 */
+	public boolean isOnRoute() {
+		return onRoute;
+	}
+
+	/**
+	 * Set the user back on route, for example when a new route is followed.
+	 */
+	public void reset() {
+		onRoute = true;
+		outsideFixes = 0;
+	}
+
+	/**
+	 * Classifies the cells near a segment, from Web Mercator coordinates and distances.
+	 */
+	private void addSegment(double x0, double y0, double x1, double y1, double enter, double exit) {
+		if (x1 < x0) {
+			double t = x0; x0 = x1; x1 = t;
+			t = y0; y0 = y1; y1 = t;
+		}
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		double length2 = dx * dx + dy * dy;
+		int firstX = cell(x0 - exit);
+		int lastX = cell(x1 + exit);
+		for (int cx = firstX; cx <= lastX; cx++) {
+			// the part of the segment near the column
+			double from = Math.max(x0, cx * cellSize - exit);
+			double to = Math.min(x1, (cx + 1) * cellSize + exit);
+			double ya = dx == 0 ? y0 : y0 + dy * (from - x0) / dx;
+			double yb = dx == 0 ? y1 : y0 + dy * (to - x0) / dx;
+			int firstY = cell(Math.min(ya, yb) - exit);
+			int lastY = cell(Math.max(ya, yb) + exit);
+			for (int cy = firstY; cy <= lastY; cy++) {
+				// the distance from the center of the cell to the segment
+				double px = (cx + 0.5) * cellSize;
+				double py = (cy + 0.5) * cellSize;
+				double t = length2 == 0 ? 0 : ((px - x0) * dx + (py - y0) * dy) / length2;
+				t = t < 0 ? 0 : (t > 1 ? 1 : t);
+				double ex = x0 + dx * t - px;
+				double ey = y0 + dy * t - py;
+				double d2 = ex * ex + ey * ey;
+				if (d2 <= enter * enter) {
+					put(RouteIndex.key(cx, cy), INSIDE);
+				} else if (d2 <= exit * exit) {
+					put(RouteIndex.key(cx, cy), BORDER);
+				}
+			}
+		}
+	}
+
+	private int find(long key) {
+		int mask = cellKeys.length - 1;
+		int i = RouteIndex.hash(key) & mask;
+		while (cellKeys[i] != EMPTY) {
+			if (cellKeys[i] == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a cell, or raises its class.
+	 */
+	private void put(long key, int c) {
+		int mask = cellKeys.length - 1;
+		int i = RouteIndex.hash(key) & mask;
+		while (cellKeys[i] != EMPTY) {
+			if (cellKeys[i] == key) {
+				if (c > cellClasses[i]) {
+					cellClasses[i] = (byte) c;
+				}
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		cellKeys[i] = key;
+		cellClasses[i] = (byte) c;
+		if (++cellCount * 2 > cellKeys.length) {
+			grow();
+		}
+	}
+
+	private void grow() {
+		long[] keys = cellKeys;
+		byte[] classes = cellClasses;
+		cellKeys = new long[keys.length * 2];
+		cellClasses = new byte[keys.length * 2];
+		java.util.Arrays.fill(cellKeys, EMPTY);
+		int mask = cellKeys.length - 1;
+		for (int j = 0; j < keys.length; j++) {
+			if (keys[j] != EMPTY) {
+				int i = RouteIndex.hash(keys[j]) & mask;
+				while (cellKeys[i] != EMPTY) {
+					i = (i + 1) & mask;
+				}
+				cellKeys[i] = keys[j];
+				cellClasses[i] = classes[j];
+			}
+		}
+	}
+
+	private int cell(double mercator) {
+		return (int) Math.floor(mercator / cellSize);
+	}
+}
@@ -0,0 +1,422 @@
+package co.oym.geokitandroid;
+
+/**
+ * A spatial index of the segments of a route, for finding the nearest point of the route to a location, for example a GPS fix. <br>
+ * Points are projected once in Web Mercator meters, and each segment is registered in the cells of a uniform grid it crosses. A query only
+ * visits the cells around the location, ring after ring, until no unvisited cell can hold a nearer segment: its cost depends on the
+ * density of the route around the location, not on its length. <br>
+ * Queries do not allocate: the result is written into a Match owned by the caller. An index is immutable once built, so it can be queried
+ * from any thread, each with its own Match.
+ */
+public class RouteIndex {
+
+	/** The default size of the grid cells, in meters **/
+	public static final double DEFAULT_CELL_SIZE = 200;
+
+	/** The Earth radius of the Web Mercator projection, in meters **/
+	static final double EARTH_RADIUS = 6378137;
+	/** The number of rings around a location visited before falling back to a scan of every segment **/
+	private static final int MAX_RINGS = 16;
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	/** The passes of the registration of the segments in the cells **/
+	private static final int COUNT_CELLS = 0;
+	private static final int COUNT_SEGMENTS = 1;
+	private static final int PLACE_SEGMENTS = 2;
+
+	/** The x and y of each point in Web Mercator meters, one after the other **/
+	final double[] mercator;
+	private final int pointCount;
+	private final int segmentCount;
+	/** The size of the grid cells in Web Mercator meters **/
+	private final double cellSize;
+	private final int minCellX;
+	private final int maxCellX;
+	private final int minCellY;
+	private final int maxCellY;
+
+	/** The open-addressing table of the non-empty cells: keys, and start of their segments in cellSegments **/
+	private final long[] cellKeys;
+	private final int[] cellStarts;
+	private final int[] cellEnds;
+	/** The segments of each cell, contiguous **/
+	private final int[] cellSegments;
+
+	/**
+	 * The nearest point of a route to a location. <br>
+	 * Segment i goes from point i to point i + 1 of the route positions.
+	 */
+	public static class Match {
+		/** The index of the segment, -1 when no segment was found **/
+		public int segment = -1;
+		/** The position of the point on the segment, from 0 at its first point to 1 at its last point **/
+		public double fraction;
+		/** The WGS84 latitude of the point **/
+		public double latitude;
+		/** The WGS84 longitude of the point **/
+		public double longitude;
+		/** The distance from the location to the point, in meters **/
+		public double distance;
+
+		@Override
+		public String toString() {
+			return "Match{" +
+					"segment=" + segment +
+					", fraction=" + fraction +
+					", latitude=" + latitude +
+					", longitude=" + longitude +
+					", distance=" + distance +
+					'}';
+		}
+	}
+
+	/**
+	 * Creates an index with the default cell size.
+	 * @param route a route response with its positions
+	 */
+	public RouteIndex(Route.Response route) {
+		this(Route.Polyline.of(route.positions), DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 *
+	 * @param positions the points of the route, at least one
+	 * @param cellSize the size of the grid cells in meters, at the middle latitude of the route. Around the typical distance of the
+	 *                 queries to the route: smaller cells hold fewer segments, but more of them are visited.
+	 */
+	public RouteIndex(Route.Polyline positions, double cellSize) {
+		if (positions.size() == 0) {
+			throw new IllegalArgumentException("empty route");
+		}
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("invalid cellSize: " + cellSize);
+		}
+		pointCount = positions.size();
+		segmentCount = Math.max(1, pointCount - 1);
+		mercator = new double[pointCount * 2];
+		double minLat = Double.MAX_VALUE;
+		double maxLat = -Double.MAX_VALUE;
+		for (int i = 0; i < pointCount; i++) {
+			double lat = positions.getLatitude(i);
+			mercator[i * 2] = x(positions.getLongitude(i));
+			mercator[i * 2 + 1] = y(lat);
+			minLat = Math.min(minLat, lat);
+			maxLat = Math.max(maxLat, lat);
+		}
+		this.cellSize = cellSize / Math.cos(Math.toRadians((minLat + maxLat) / 2));
+
+		int minX = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < pointCount; i++) {
+			int cx = cell(mercator[i * 2]);
+			int cy = cell(mercator[i * 2 + 1]);
+			minX = Math.min(minX, cx);
+			maxX = Math.max(maxX, cx);
+			minY = Math.min(minY, cy);
+			maxY = Math.max(maxY, cy);
+		}
+		minCellX = minX;
+		maxCellX = maxX;
+		minCellY = minY;
+		maxCellY = maxY;
+
+		// size the table from the cells crossed, count the segments of each cell, then place them
+		int total = 0;
+		for (int s = 0; s < segmentCount; s++) {
+			total += rasterize(s, COUNT_CELLS);
+		}
+		int capacity = Integer.highestOneBit(Math.max(16, total * 2) - 1) << 1;
+		cellKeys = new long[capacity];
+		cellStarts = new int[capacity];
+		cellEnds = new int[capacity];
+		java.util.Arrays.fill(cellKeys, EMPTY);
+		for (int s = 0; s < segmentCount; s++) {
+			rasterize(s, COUNT_SEGMENTS);
+		}
+		int start = 0;
+		for (int i = 0; i < capacity; i++) {
+			if (cellKeys[i] != EMPTY) {
+				int count = cellEnds[i];
+				cellStarts[i] = start;
+				cellEnds[i] = start;
+				start += count;
+			}
+		}
+		cellSegments = new int[total];
+		for (int s = 0; s < segmentCount; s++) {
+			rasterize(s, PLACE_SEGMENTS);
+		}
+	}
+
+	/**
+	 * @return the number of points of the route
+	 */
+	public int pointCount() {
+		return pointCount;
+	}
+
+	/**
+	 * Find the nearest point of the route to a location.
+	 * @param latitude
+	 * @param longitude
+	 * @param match the result
+	 * @return true, the route always has a nearest point
+	 */
+	public boolean nearest(double latitude, double longitude, Match match) {
+		return nearest(latitude, longitude, Double.POSITIVE_INFINITY, match);
+	}
+
+	/**
+	 * Find the nearest point of the route to a location, within a distance.
+	 * @param latitude
+	 * @param longitude
+	 * @param maxDistance the maximum distance in meters
+	 * @param match the result, with segment -1 if the route is farther than maxDistance
+	 * @return true if a point was found
+	 */
+	public boolean nearest(double latitude, double longitude, double maxDistance, Match match) {
+		double scale = Math.cos(Math.toRadians(latitude));
+		double qx = x(longitude);
+		double qy = y(latitude);
+		int segment = search(qx, qy, maxDistance / scale);
+		match.segment = segment;
+		if (segment < 0) {
+			return false;
+		}
+		double fraction = fraction(segment, qx, qy);
+		double px = px(segment, fraction);
+		double py = py(segment, fraction);
+		match.fraction = fraction;
+		match.latitude = latitude(py);
+		match.longitude = longitude(px);
+		match.distance = Math.hypot(px - qx, py - qy) * scale;
+		return true;
+	}
+
+	/**
+	 * @param latitude
+	 * @param longitude
+	 * @return the distance from a location to the route, in meters
+	 */
+	public double distance(double latitude, double longitude) {
+		double qx = x(longitude);
+		double qy = y(latitude);
+		int segment = search(qx, qy, Double.POSITIVE_INFINITY);
+		return Math.sqrt(distance2(segment, qx, qy)) * Math.cos(Math.toRadians(latitude));
+	}
+
+	/**
+	 * @return the nearest segment to a Web Mercator location, within a Web Mercator distance, or -1
+	 */
+	private int search(double qx, double qy, double maxDistance) {
+		int cx = cell(qx);
+		int cy = cell(qy);
+		// the first ring touching the grid, and the ring covering all of it
+		int firstRing = Math.max(0, Math.max(Math.max(minCellX - cx, cx - maxCellX), Math.max(minCellY - cy, cy - maxCellY)));
+		int lastRing = Math.max(Math.max(cx - minCellX, maxCellX - cx), Math.max(cy - minCellY, maxCellY - cy));
+		if ((firstRing - 1) * cellSize > maxDistance) {
+			return -1;
+		}
+		double max2 = maxDistance * maxDistance;
+		if (firstRing > MAX_RINGS) {
+			// far from the route: cheaper to scan every segment than every empty cell
+			return scan(0, segmentCount, qx, qy, max2);
+		}
+
+		int best = -1;
+		double best2 = max2;
+		for (int r = firstRing; r <= lastRing; r++) {
+			if (r - firstRing > MAX_RINGS) {
+				return scan(0, segmentCount, qx, qy, max2);
+			}
+			for (int x = Math.max(cx - r, minCellX); x <= Math.min(cx + r, maxCellX); x++) {
+				boolean side = x == cx - r || x == cx + r;
+				int step = side ? 1 : 2 * r;
+				for (int y = side ? Math.max(cy - r, minCellY) : cy - r; y <= Math.min(cy + r, maxCellY); y += step) {
+					if (y < minCellY) {
+						continue;
+					}
+					int slot = find(key(x, y));
+					if (slot < 0) {
+						continue;
+					}
+					for (int i = cellStarts[slot]; i < cellEnds[slot]; i++) {
+						int s = cellSegments[i];
+						double d2 = distance2(s, qx, qy);
+						if (best < 0 ? d2 <= best2 : (d2 < best2 || (d2 == best2 && s < best))) {
+							best = s;
+							best2 = d2;
+						}
+					}
+				}
+			}
+			// every segment of the next rings is farther than r cells
+			double reached = r * cellSize;
+			if ((best >= 0 && best2 <= reached * reached) || reached > maxDistance) {
+				return best;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the nearest segment between from (inclusive) and to (exclusive) to a Web Mercator location, within a squared distance, or -1
+	 */
+	int scan(int from, int to, double qx, double qy, double max2) {
+		int best = -1;
+		double best2 = max2;
+		for (int s = Math.max(0, from); s < Math.min(to, segmentCount); s++) {
+			double d2 = distance2(s, qx, qy);
+			if (best < 0 ? d2 <= best2 : d2 < best2) {
+				best = s;
+				best2 = d2;
+			}
+		}
+		return best;
+	}
+
+	int segmentCount() {
+		return segmentCount;
+	}
+
+	/**
+	 * @return the position on a segment of the projection of a Web Mercator location, between 0 and 1
+	 */
+	double fraction(int segment, double qx, double qy) {
+		int a = segment * 2;
+		int b = Math.min(segment + 1, pointCount - 1) * 2;
+		double dx = mercator[b] - mercator[a];
+		double dy = mercator[b + 1] - mercator[a + 1];
+		double length2 = dx * dx + dy * dy;
+		if (length2 == 0) {
+			return 0;
+		}
+		double t = ((qx - mercator[a]) * dx + (qy - mercator[a + 1]) * dy) / length2;
+		return t < 0 ? 0 : (t > 1 ? 1 : t);
+	}
+
+	double px(int segment, double fraction) {
+		int a = segment * 2;
+		int b = Math.min(segment + 1, pointCount - 1) * 2;
+		return mercator[a] + (mercator[b] - mercator[a]) * fraction;
+	}
+
+	double py(int segment, double fraction) {
+		int a = segment * 2 + 1;
+		int b = Math.min(segment + 1, pointCount - 1) * 2 + 1;
+		return mercator[a] + (mercator[b] - mercator[a]) * fraction;
+	}
+
+	/**
+	 * @return the squared Web Mercator distance from a Web Mercator location to a segment
+	 */
+	double distance2(int segment, double qx, double qy) {
+		double t = fraction(segment, qx, qy);
+		double dx = px(segment, t) - qx;
+		double dy = py(segment, t) - qy;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Registers a segment in the cells it crosses.
+	 * @param pass COUNT_CELLS, COUNT_SEGMENTS or PLACE_SEGMENTS
+	 * @return the number of cells
+	 */
+	private int rasterize(int segment, int pass) {
+		int a = segment * 2;
+		int b = Math.min(segment + 1, pointCount - 1) * 2;
+		double x0 = mercator[a] / cellSize;
+		double y0 = mercator[a + 1] / cellSize;
+		double x1 = mercator[b] / cellSize;
+		double y1 = mercator[b + 1] / cellSize;
+		if (x1 < x0) {
+			double t = x0; x0 = x1; x1 = t;
+			t = y0; y0 = y1; y1 = t;
+		}
+		int count = 0;
+		int firstX = (int) Math.floor(x0);
+		int lastX = (int) Math.floor(x1);
+		for (int cx = firstX; cx <= lastX; cx++) {
+			// the part of the segment inside the column
+			double from = Math.max(x0, cx);
+			double to = Math.min(x1, cx + 1);
+			double ya;
+			double yb;
+			if (x1 == x0) {
+				ya = y0;
+				yb = y1;
+			} else {
+				ya = y0 + (y1 - y0) * (from - x0) / (x1 - x0);
+				yb = y0 + (y1 - y0) * (to - x0) / (x1 - x0);
+			}
+			int firstY = (int) Math.floor(Math.min(ya, yb));
+			int lastY = (int) Math.floor(Math.max(ya, yb));
+			for (int cy = firstY; cy <= lastY; cy++) {
+				if (pass == COUNT_SEGMENTS) {
+					cellEnds[insert(key(cx, cy))]++;
+				} else if (pass == PLACE_SEGMENTS) {
+					cellSegments[cellEnds[find(key(cx, cy))]++] = segment;
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private int find(long key) {
+		int mask = cellKeys.length - 1;
+		int i = hash(key) & mask;
+		while (cellKeys[i] != EMPTY) {
+			if (cellKeys[i] == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	private int insert(long key) {
+		int mask = cellKeys.length - 1;
+		int i = hash(key) & mask;
+		while (cellKeys[i] != EMPTY) {
+			if (cellKeys[i] == key) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+		cellKeys[i] = key;
+		return i;
+	}
+
+	private int cell(double mercator) {
+		return (int) Math.floor(mercator / cellSize);
+	}
+
+	static long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	static int hash(long key) {
+		key *= 0x9e3779b97f4a7c15L;
+		return (int) (key ^ (key >>> 32));
+	}
+
+	static double x(double longitude) {
+		return EARTH_RADIUS * Math.toRadians(longitude);
+	}
+
+	static double y(double latitude) {
+		double lat = Math.max(-85.05112878, Math.min(85.05112878, latitude));
+		return EARTH_RADIUS * Math.log(Math.tan(Math.PI / 4 + Math.toRadians(lat) / 2));
+	}
+
+	static double longitude(double x) {
+		return Math.toDegrees(x / EARTH_RADIUS);
+	}
+
+	static double latitude(double y) {
+		return Math.toDegrees(2 * Math.atan(Math.exp(y / EARTH_RADIUS)) - Math.PI / 2);
+	}
+}
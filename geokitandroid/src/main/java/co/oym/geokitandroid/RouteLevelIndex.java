@@ -0,0 +1,88 @@
+package co.oym.geokitandroid;
+
+/**
+ * The points of a route to display at each zoom level, computed once from its display levels. <br>
+ * For each display level bitmask (see Route.Utility.checkDisplayLevel()), the indexes of the points having it are packed in an int array,
+ * so a zoom change only picks an array. The arrays are shared: they must not be modified.
+ */
+public class RouteLevelIndex {
+
+	/** The number of level buckets: the bits 0 to 6 and 14 of the display level values **/
+	private static final int BUCKET_COUNT = 8;
+
+	private final int pointCount;
+	/** The indexes of the points of each bucket, then of every point **/
+	private final int[][] vertices = new int[BUCKET_COUNT + 1][];
+
+	/**
+	 *
+	 * @param route a route response with its levels
+	 */
+	public RouteLevelIndex(Route.Response route) {
+		this(Route.Levels.of(route.levels).values());
+	}
+
+	/**
+	 *
+	 * @param levels the display level value of each point
+	 */
+	public RouteLevelIndex(int[] levels) {
+		pointCount = levels.length;
+		int[] counts = new int[BUCKET_COUNT];
+		for (int level : levels) {
+			for (int b = 0; b < BUCKET_COUNT; b++) {
+				if ((level & mask(b)) != 0) {
+					counts[b]++;
+				}
+			}
+		}
+		for (int b = 0; b < BUCKET_COUNT; b++) {
+			vertices[b] = new int[counts[b]];
+			counts[b] = 0;
+		}
+		for (int i = 0; i < levels.length; i++) {
+			int level = levels[i];
+			for (int b = 0; b < BUCKET_COUNT; b++) {
+				if ((level & mask(b)) != 0) {
+					vertices[b][counts[b]++] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of points of the route
+	 */
+	public int pointCount() {
+		return pointCount;
+	}
+
+	/**
+	 * @param zoomLevel
+	 * @return the indexes of the points to display at a zoom level, in route order. The array is shared: it must not be modified.
+	 */
+	public int[] vertices(int zoomLevel) {
+		int mask = Route.Utility.displayLevelMask(zoomLevel);
+		if (mask == 0) {
+			synchronized (vertices) {
+				if (vertices[BUCKET_COUNT] == null) {
+					int[] all = new int[pointCount];
+					for (int i = 0; i < pointCount; i++) {
+						all[i] = i;
+					}
+					vertices[BUCKET_COUNT] = all;
+				}
+				return vertices[BUCKET_COUNT];
+			}
+		}
+		return vertices[bucket(mask)];
+	}
+
+	private static int mask(int bucket) {
+		return bucket < BUCKET_COUNT - 1 ? 1 << bucket : 1 << 14;
+	}
+
+	private static int bucket(int mask) {
+		return mask == 1 << 14 ? BUCKET_COUNT - 1 : Integer.numberOfTrailingZeros(mask);
+	}
+}
@@ -0,0 +1,228 @@
+package co.oym.geokitandroid;
+
+import com.mapbox.mapboxsdk.geometry.LatLng;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A many-to-many matrix of route lengths and times, between N origins and M destinations. <br>
+ * Each pair is computed with a directions call decoded as a Route.Summary, so instructions and geometry are never built. Lengths and times
+ * are stored in packed row-major arrays (origin * M + destination), and pairs not computed (failed, canceled or pending) are Float.NaN. <br>
+ * Compute it with WSClient.RouteWS.matrix(). It can be canceled from another thread: pairs already computed are kept.
+ */
+public class RouteMatrix {
+
+	/** The error message of pairs canceled while in flight **/
+	public static final String CANCELED = "canceled";
+
+	private final List<LatLng> origins;
+	private final List<LatLng> destinations;
+	private final Route.Request template;
+	private final float[] lengths;
+	private final float[] times;
+
+	private int completedCount;
+	private int failedCount;
+	private volatile boolean canceled;
+	private final Map<Integer, Pending> inFlight = new HashMap<Integer, Pending>();
+
+	private static class Pending {
+		WSClient.DownloadTask<Route.Summary> task;
+		final WSCallback<Route.Summary> callback;
+
+		Pending(WSCallback<Route.Summary> callback) {
+			this.callback = callback;
+		}
+	}
+
+	/**
+	 *
+	 * @param origins
+	 * @param destinations
+	 * @param template the request giving the transport mode and distance unit of each pair
+	 */
+	public RouteMatrix(List<LatLng> origins, List<LatLng> destinations, Route.Request template) {
+		this.origins = new java.util.ArrayList<LatLng>(origins);
+		this.destinations = new java.util.ArrayList<LatLng>(destinations);
+		this.template = template.copy();
+		this.template.vias = null;
+		this.lengths = new float[origins.size() * destinations.size()];
+		this.times = new float[lengths.length];
+		java.util.Arrays.fill(lengths, Float.NaN);
+		java.util.Arrays.fill(times, Float.NaN);
+	}
+
+	public int originCount() {
+		return origins.size();
+	}
+
+	public int destinationCount() {
+		return destinations.size();
+	}
+
+	/**
+	 * @param origin
+	 * @param destination
+	 * @return the route length between origin and destination, depending on the distance unit, or Float.NaN if not computed
+	 */
+	public synchronized float length(int origin, int destination) {
+		return lengths[origin * destinations.size() + destination];
+	}
+
+	/**
+	 * @param origin
+	 * @param destination
+	 * @return the route time between origin and destination in minutes, or Float.NaN if not computed
+	 */
+	public synchronized float time(int origin, int destination) {
+		return times[origin * destinations.size() + destination];
+	}
+
+	/**
+	 * @return the packed row-major lengths, not copied. Only read it once the computation is over.
+	 */
+	public float[] lengths() {
+		return lengths;
+	}
+
+	/**
+	 * @return the packed row-major times, not copied. Only read it once the computation is over.
+	 */
+	public float[] times() {
+		return times;
+	}
+
+	public synchronized int completedCount() {
+		return completedCount;
+	}
+
+	public synchronized int failedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * @return true if every pair has been computed successfully
+	 */
+	public synchronized boolean isComplete() {
+		return completedCount == lengths.length;
+	}
+
+	/**
+	 * Cancel the computation: no more pair is started, and calls in flight are canceled.
+	 */
+	public void cancel() {
+		java.util.List<Pending> pending;
+		synchronized (this) {
+			canceled = true;
+			pending = new java.util.ArrayList<Pending>(inFlight.values());
+			inFlight.clear();
+		}
+		for (Pending p : pending) {
+			if (p.task != null) {
+				p.task.cancel();
+			}
+			p.callback.onFailure(CANCELED);
+		}
+	}
+
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	/**
+	 * Computes the pairs, blocking until every started pair is done.
+	 */
+	void run(final WSClient client, final String appKey, int concurrency) throws InterruptedException {
+		final int count = lengths.length;
+		Iterator<Integer> pairs = new Iterator<Integer>() {
+			int next;
+
+			public boolean hasNext() {
+				return !canceled && next < count;
+			}
+
+			public Integer next() {
+				return next++;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		WSBatch.run(pairs, concurrency, false, new WSBatch.Runner<Integer, Route.Summary>() {
+			public void call(Integer pair, WSCallback<Route.Summary> callback) {
+				start(client, appKey, pair, callback);
+			}
+		}, new WSBatch.Callback<Route.Summary>() {
+			public void onResponse(int index, Route.Summary response) {
+				synchronized (RouteMatrix.this) {
+					lengths[index] = response != null ? response.length : Float.NaN;
+					times[index] = response != null ? response.time : Float.NaN;
+					completedCount++;
+				}
+			}
+
+			public void onFailure(int index, String errorMessage) {
+				synchronized (RouteMatrix.this) {
+					failedCount++;
+				}
+			}
+		});
+	}
+
+	private void start(WSClient client, String appKey, final int pair, final WSCallback<Route.Summary> callback) {
+		LatLng origin = origins.get(pair / destinations.size());
+		LatLng destination = destinations.get(pair % destinations.size());
+		if (origin.getLatitude() == destination.getLatitude() && origin.getLongitude() == destination.getLongitude()) {
+			callback.onResponse(new Route.Summary());
+			return;
+		}
+
+		Route.Request request = template.copy();
+		request.start = origin;
+		request.end = destination;
+
+		// the first of completion and cancellation wins
+		final AtomicBoolean done = new AtomicBoolean();
+		final Pending pending = new Pending(new WSCallback<Route.Summary>() {
+			public void onResponse(Route.Summary response) {
+				if (done.compareAndSet(false, true)) {
+					callback.onResponse(response);
+				}
+			}
+
+			public void onFailure(String errorMessage) {
+				if (done.compareAndSet(false, true)) {
+					callback.onFailure(errorMessage);
+				}
+			}
+		});
+		synchronized (this) {
+			inFlight.put(pair, pending);
+		}
+		pending.task = client.enqueue(WSClient.ROUTE_DIRECTIONS, appKey, request, Route.Summary.class, new WSCallback<Route.Summary>() {
+			public void onResponse(Route.Summary response) {
+				finished(pair);
+				pending.callback.onResponse(response);
+			}
+
+			public void onFailure(String errorMessage) {
+				finished(pair);
+				pending.callback.onFailure(errorMessage);
+			}
+		});
+		if (canceled) {
+			pending.task.cancel();
+			pending.callback.onFailure(CANCELED);
+		}
+	}
+
+	private synchronized void finished(int pair) {
+		inFlight.remove(pair);
+	}
+}
@@ -0,0 +1,303 @@
+package co.oym.geokitandroid;
+
+/**
+ * The progress along a route, updated from each location fix, for turn-by-turn navigation. <br>
+ * A fix is matched to the route by scanning the segments just behind and ahead of the previous match, so an update only visits the few
+ * segments covered since the previous fix. The route index is only queried when the fix is not near them: at the first fix, or after a
+ * jump. Instructions and sections are followed with cursors, and the remaining length and time come from sums precomputed per instruction,
+ * so updates do not allocate. <br>
+ * The length of an instruction is assumed to run from its vertex to the vertex of the next instruction, and is spread along the geometry
+ * in between. Lengths are in the distance unit of the route, and times in minutes. <br>
+ * A tracker is not thread-safe: update and read it from the same thread.
+ */
+public class RouteTracker {
+
+	/** The default distance from the route above which a fix is off route, in meters **/
+	public static final double DEFAULT_MAX_DISTANCE = 50;
+	/** The default length of route scanned ahead of the previous match, in meters **/
+	public static final double DEFAULT_LOOKAHEAD = 300;
+
+	private final Route.Response route;
+	private final RouteIndex index;
+	/** The distance along the route of each point, in meters **/
+	private final double[] along;
+	/** The vertex of each instruction **/
+	private final int[] instructionVertices;
+	/** The length and time of the instructions after each instruction **/
+	private final float[] lengthsAfter;
+	private final float[] timesAfter;
+	/** The route length per meter of geometry, for the part of the route before the first instruction **/
+	private final double unitsPerMeter;
+	private final double minutesPerMeter;
+
+	private double maxDistance = DEFAULT_MAX_DISTANCE;
+	private double lookahead = DEFAULT_LOOKAHEAD;
+
+	private final RouteIndex.Match match = new RouteIndex.Match();
+	private final RouteIndex.Match scratch = new RouteIndex.Match();
+	private boolean matched;
+	private boolean onRoute;
+	/** The distance along the route of the last match, in meters **/
+	private double position;
+	/** The instruction being followed, -1 before the first one **/
+	private int instruction = -1;
+	/** The current section, -1 if none **/
+	private int section = -1;
+
+	/**
+	 *
+	 * @param route a route response with its positions
+	 */
+	public RouteTracker(Route.Response route) {
+		this(route, new RouteIndex(route));
+	}
+
+	/**
+	 *
+	 * @param route a route response with its positions
+	 * @param index the index of the route positions
+	 */
+	public RouteTracker(Route.Response route, RouteIndex index) {
+		this.route = route;
+		this.index = index;
+		int n = index.pointCount();
+		along = new double[n];
+		for (int i = 1; i < n; i++) {
+			along[i] = along[i - 1] + segmentLength(i - 1);
+		}
+
+		int count = route.instructions != null ? route.instructions.size() : 0;
+		instructionVertices = new int[count];
+		lengthsAfter = new float[count];
+		timesAfter = new float[count];
+		for (int i = 0; i < count; i++) {
+			instructionVertices[i] = Math.max(0, Math.min(n - 1, route.instructions.get(i).vertexIndex));
+		}
+		for (int i = count - 2; i >= 0; i--) {
+			Route.Instruction next = route.instructions.get(i + 1);
+			lengthsAfter[i] = lengthsAfter[i + 1] + next.length;
+			timesAfter[i] = timesAfter[i + 1] + next.time;
+		}
+		double total = along[n - 1];
+		unitsPerMeter = total > 0 ? route.length / total : 0;
+		minutesPerMeter = total > 0 ? route.time / total : 0;
+	}
+
+	/**
+	 * Set the distance from the route above which a fix is off route.
+	 * @param maxDistance in meters
+	 */
+	public void setMaxDistance(double maxDistance) {
+		this.maxDistance = maxDistance;
+	}
+
+	/**
+	 * Set the length of route scanned ahead of the previous match. It must cover the distance traveled between two fixes.
+	 * @param lookahead in meters
+	 */
+	public void setLookahead(double lookahead) {
+		this.lookahead = lookahead;
+	}
+
+	/**
+	 * Forget the progress, for example before replaying a trip.
+	 */
+	public void reset() {
+		matched = false;
+		onRoute = false;
+		position = 0;
+		instruction = -1;
+		section = -1;
+		match.segment = -1;
+	}
+
+	/**
+	 * Match a new location fix to the route. When the fix is off route, the progress of the last match is kept.
+	 * @param latitude
+	 * @param longitude
+	 * @return true if the fix is on route
+	 */
+	public boolean update(double latitude, double longitude) {
+		double scale = Math.cos(Math.toRadians(latitude));
+		double qx = RouteIndex.x(longitude);
+		double qy = RouteIndex.y(latitude);
+		double max = maxDistance / scale;
+
+		int segment = -1;
+		if (matched) {
+			// the segments around the previous match
+			int from = Math.max(0, match.segment - 1);
+			int to = match.segment + 1;
+			while (to < index.segmentCount() && along[to] <= position + lookahead) {
+				to++;
+			}
+			segment = index.scan(from, to, qx, qy, max * max);
+		}
+		if (segment < 0) {
+			if (!index.nearest(latitude, longitude, maxDistance, scratch)) {
+				onRoute = false;
+				return false;
+			}
+			segment = scratch.segment;
+		}
+
+		double fraction = index.fraction(segment, qx, qy);
+		double px = index.px(segment, fraction);
+		double py = index.py(segment, fraction);
+		match.segment = segment;
+		match.fraction = fraction;
+		match.latitude = RouteIndex.latitude(py);
+		match.longitude = RouteIndex.longitude(px);
+		match.distance = Math.hypot(px - qx, py - qy) * scale;
+		matched = true;
+		onRoute = true;
+		position = along[segment] + segmentLength(segment) * fraction;
+
+		// move the cursors, forward or backward
+		while (instruction + 1 < instructionVertices.length && along[instructionVertices[instruction + 1]] <= position) {
+			instruction++;
+		}
+		while (instruction >= 0 && along[instructionVertices[instruction]] > position) {
+			instruction--;
+		}
+		updateSection(segment);
+		return true;
+	}
+
+	/**
+	 * @return true if the last fix was on route
+	 */
+	public boolean isOnRoute() {
+		return onRoute;
+	}
+
+	/**
+	 * @return the last point matched on the route, with segment -1 before the first match. The object is reused by each update.
+	 */
+	public RouteIndex.Match getMatch() {
+		return match;
+	}
+
+	/**
+	 * @return the index of the instruction being followed in the Route.instructions list, -1 before the first one
+	 */
+	public int getInstructionIndex() {
+		return instruction;
+	}
+
+	/**
+	 * @return the instruction being followed, or null before the first one
+	 */
+	public Route.Instruction getInstruction() {
+		return instruction >= 0 ? route.instructions.get(instruction) : null;
+	}
+
+	/**
+	 * @return the next maneuver, or null after the last one
+	 */
+	public Route.Instruction getNextInstruction() {
+		return instruction + 1 < instructionVertices.length ? route.instructions.get(instruction + 1) : null;
+	}
+
+	/**
+	 * @return the current section, or null if the last match is in none
+	 */
+	public Route.Section getSection() {
+		return section >= 0 ? route.sections.get(section) : null;
+	}
+
+	/**
+	 * @return the length to the next maneuver, depending on the route distance unit, or 0 after the last one
+	 */
+	public float getDistanceToNextManeuver() {
+		if (instruction + 1 >= instructionVertices.length) {
+			return 0;
+		}
+		if (instruction < 0) {
+			return (float) ((along[instructionVertices[0]] - position) * unitsPerMeter);
+		}
+		return route.instructions.get(instruction).length * (float) remainingFraction();
+	}
+
+	/**
+	 * @return the remaining length of the route, depending on the route distance unit
+	 */
+	public float getRemainingLength() {
+		if (instruction < 0) {
+			if (instructionVertices.length == 0) {
+				return (float) ((along[along.length - 1] - position) * unitsPerMeter);
+			}
+			return (float) ((along[instructionVertices[0]] - position) * unitsPerMeter) + route.instructions.get(0).length + lengthsAfter[0];
+		}
+		return route.instructions.get(instruction).length * (float) remainingFraction() + lengthsAfter[instruction];
+	}
+
+	/**
+	 * @return the remaining time of the route, in minutes
+	 */
+	public float getRemainingTime() {
+		if (instruction < 0) {
+			if (instructionVertices.length == 0) {
+				return (float) ((along[along.length - 1] - position) * minutesPerMeter);
+			}
+			return (float) ((along[instructionVertices[0]] - position) * minutesPerMeter) + route.instructions.get(0).time + timesAfter[0];
+		}
+		return route.instructions.get(instruction).time * (float) remainingFraction() + timesAfter[instruction];
+	}
+
+	/**
+	 * @return the part of the current instruction left, between 0 and 1
+	 */
+	private double remainingFraction() {
+		double start = along[instructionVertices[instruction]];
+		double end = instruction + 1 < instructionVertices.length ? along[instructionVertices[instruction + 1]] : along[along.length - 1];
+		if (end <= start) {
+			return 0;
+		}
+		return Math.max(0, Math.min(1, (end - position) / (end - start)));
+	}
+
+	private void updateSection(int segment) {
+		java.util.List<Route.Section> sections = route.sections;
+		if (sections == null || sections.isEmpty()) {
+			return;
+		}
+		if (section >= 0 && contains(sections.get(section), segment)) {
+			return;
+		}
+		// sections follow each other: look at the neighbors first
+		if (section + 1 < sections.size() && contains(sections.get(section + 1), segment)) {
+			section++;
+			return;
+		}
+		if (section - 1 >= 0 && contains(sections.get(section - 1), segment)) {
+			section--;
+			return;
+		}
+		section = -1;
+		for (int i = 0; i < sections.size(); i++) {
+			if (contains(sections.get(i), segment)) {
+				section = i;
+				return;
+			}
+		}
+	}
+
+	private static boolean contains(Route.Section section, int segment) {
+		return segment >= section.startVertex && segment < Math.max(section.endVertex, section.startVertex + 1);
+	}
+
+	/**
+	 * @return the length of a segment in meters
+	 */
+	private double segmentLength(int segment) {
+		double[] mercator = index.mercator;
+		int a = segment * 2;
+		int b = Math.min(segment + 1, along.length - 1) * 2;
+		double dx = mercator[b] - mercator[a];
+		double dy = mercator[b + 1] - mercator[a + 1];
+		// the Web Mercator scale at the middle of the segment
+		double lat = RouteIndex.latitude((mercator[a + 1] + mercator[b + 1]) / 2);
+		return Math.sqrt(dx * dx + dy * dy) * Math.cos(Math.toRadians(lat));
+	}
+}
@@ -0,0 +1,181 @@
+package co.oym.geokitandroid;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs a batch of Web Service requests with a bounded number of concurrent calls. <br>
+ * Requests are read one by one from an iterator, and reading blocks while the maximum number of calls are in flight, so a large input is
+ * never loaded or sent all at once. A failed request is reported with its index and does not abort the batch. <br>
+ * Results are delivered one at a time, either in input order or in completion order with their index.
+ */
+public class WSBatch {
+
+	/** The default maximum number of concurrent calls of a batch **/
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/**
+	 * A batch callback, receiving the result of each request of a batch. Its methods are never called concurrently.
+	 */
+	public interface Callback<T> {
+		/**
+		 * @param index the index of the request in the batch
+		 * @param response
+		 */
+		void onResponse(int index, T response);
+
+		/**
+		 * @param index the index of the request in the batch
+		 * @param errorMessage
+		 */
+		void onFailure(int index, String errorMessage);
+	}
+
+	/**
+	 * The result of one request of a batch.
+	 */
+	public static class Result<T> {
+		/** The index of the request in the batch **/
+		public final int index;
+		/** The response, null if failed **/
+		public final T response;
+		/** The error message, null if succeeded **/
+		public final String errorMessage;
+
+		public Result(int index, T response, String errorMessage) {
+			this.index = index;
+			this.response = response;
+			this.errorMessage = errorMessage;
+		}
+
+		public boolean isSuccessful() {
+			return errorMessage == null;
+		}
+
+		@Override
+		public String toString() {
+			return "Result{" +
+					"index=" + index +
+					", response=" + response +
+					", errorMessage='" + errorMessage + '\'' +
+					'}';
+		}
+	}
+
+	/**
+	 * Starts the asynchronous call of one request of a batch.
+	 */
+	interface Runner<R, T> {
+		void call(R request, WSCallback<T> callback) throws Exception;
+	}
+
+	/**
+	 * A callback collecting results into a list, in input order.
+	 */
+	static class Collector<T> implements Callback<T> {
+		final java.util.List<Result<T>> results = new java.util.ArrayList<Result<T>>();
+
+		public void onResponse(int index, T response) {
+			set(new Result<T>(index, response, null));
+		}
+
+		public void onFailure(int index, String errorMessage) {
+			set(new Result<T>(index, null, errorMessage));
+		}
+
+		private void set(Result<T> result) {
+			while (results.size() <= result.index) {
+				results.add(null);
+			}
+			results.set(result.index, result);
+		}
+	}
+
+	private final int concurrency;
+	private final boolean ordered;
+	private final Semaphore permits;
+	/** Results waiting for the delivery of previous indexes, in ordered mode **/
+	private final Map<Integer, Result<?>> buffered = new HashMap<Integer, Result<?>>();
+	private int nextIndex;
+
+	private WSBatch(int concurrency, boolean ordered) {
+		if (concurrency < 1) {
+			throw new IllegalArgumentException("concurrency < 1: " + concurrency);
+		}
+		this.concurrency = concurrency;
+		this.ordered = ordered;
+		this.permits = new Semaphore(concurrency);
+	}
+
+	/**
+	 * Runs a batch and returns once every result has been delivered. <br>
+	 * In ordered mode a call slot is released when its result is delivered, so results waiting for a slow previous request also count in the concurrency limit.
+	 */
+	static <R, T> void run(Iterator<R> requests, int concurrency, boolean ordered, Runner<R, T> runner, Callback<T> callback) throws InterruptedException {
+		new WSBatch(concurrency, ordered).execute(requests, runner, callback);
+	}
+
+	private <R, T> void execute(Iterator<R> requests, Runner<R, T> runner, final Callback<T> callback) throws InterruptedException {
+		int index = 0;
+		while (requests.hasNext()) {
+			R request = requests.next();
+			permits.acquire();
+			final int i = index++;
+			try {
+				runner.call(request, new WSCallback<T>() {
+					public void onResponse(T response) {
+						complete(new Result<T>(i, response, null), callback);
+					}
+
+					public void onFailure(String errorMessage) {
+						complete(new Result<T>(i, null, errorMessage != null ? errorMessage : "unknown error"), callback);
+					}
+				});
+			} catch (Exception ex) {
+				complete(new Result<T>(i, null, String.valueOf(ex.getMessage())), callback);
+			}
+		}
+		// every slot is back once every result has been delivered
+		permits.acquire(concurrency);
+		permits.release(concurrency);
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized <T> void complete(Result<T> result, Callback<T> callback) {
+		if (!ordered) {
+			deliver(result, callback);
+			return;
+		}
+		buffered.put(result.index, result);
+		Result<T> next;
+		RuntimeException thrown = null;
+		while ((next = (Result<T>) buffered.remove(nextIndex)) != null) {
+			nextIndex++;
+			// a failing callback must not hold back the results behind it, nor their slots
+			try {
+				deliver(next, callback);
+			} catch (RuntimeException ex) {
+				if (thrown == null) {
+					thrown = ex;
+				}
+			}
+		}
+		if (thrown != null) {
+			throw thrown;
+		}
+	}
+
+	private <T> void deliver(Result<T> result, Callback<T> callback) {
+		try {
+			if (result.errorMessage == null) {
+				callback.onResponse(result.index, result.response);
+			} else {
+				callback.onFailure(result.index, result.errorMessage);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+}
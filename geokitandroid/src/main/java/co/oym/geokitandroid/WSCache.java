@@ -0,0 +1,146 @@
+package co.oym.geokitandroid;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded in-memory cache of Web Service responses. <br>
+ * Entries are weighted (for example by number of places and geometry points), evicted in least-recently-used order when the total weight
+ * exceeds the maximum weight, and expire after a time-to-live. <br>
+ * Cached responses are shared between callers and must not be modified.
+ */
+public class WSCache<V> {
+
+	private final long maxWeight;
+	private final long ttlNanos;
+	private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+
+	private long weight;
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	private static class Entry<V> {
+		final V value;
+		final long weight;
+		final long expiresAt;
+
+		Entry(V value, long weight, long expiresAt) {
+			this.value = value;
+			this.weight = weight;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 *
+	 * @param maxWeight the maximum total weight of the entries
+	 * @param ttl the time-to-live of an entry
+	 * @param unit the unit of ttl
+	 */
+	public WSCache(long maxWeight, long ttl, TimeUnit unit) {
+		if (maxWeight <= 0) {
+			throw new IllegalArgumentException("maxWeight <= 0: " + maxWeight);
+		}
+		this.maxWeight = maxWeight;
+		this.ttlNanos = unit.toNanos(ttl);
+	}
+
+	/**
+	 * @param key
+	 * @return the cached value, or null if absent or expired
+	 */
+	public synchronized V get(String key) {
+		Entry<V> entry = entries.get(key);
+		if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+			entries.remove(key);
+			weight -= entry.weight;
+			entry = null;
+		}
+		if (entry == null) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return entry.value;
+	}
+
+	/**
+	 * Add a value to the cache, evicting least recently used entries if needed. A value heavier than the maximum weight is not cached.
+	 * @param key
+	 * @param value
+	 * @param weight the weight of the value, at least 1
+	 */
+	public synchronized void put(String key, V value, long weight) {
+		weight = Math.max(1, weight);
+		Entry<V> previous = entries.remove(key);
+		if (previous != null) {
+			this.weight -= previous.weight;
+		}
+		if (weight > maxWeight) {
+			return;
+		}
+		entries.put(key, new Entry<V>(value, weight, System.nanoTime() + ttlNanos));
+		this.weight += weight;
+
+		Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+		while (this.weight > maxWeight && it.hasNext()) {
+			Entry<V> eldest = it.next().getValue();
+			it.remove();
+			this.weight -= eldest.weight;
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Remove all entries. Counters are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+
+	/**
+	 * @return the number of entries, including expired entries not yet removed
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the total weight of the entries
+	 */
+	public synchronized long weight() {
+		return weight;
+	}
+
+	public long maxWeight() {
+		return maxWeight;
+	}
+
+	public synchronized long hitCount() {
+		return hitCount;
+	}
+
+	public synchronized long missCount() {
+		return missCount;
+	}
+
+	public synchronized long evictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "WSCache{" +
+				"size=" + entries.size() +
+				", weight=" + weight +
+				", maxWeight=" + maxWeight +
+				", hitCount=" + hitCount +
+				", missCount=" + missCount +
+				", evictionCount=" + evictionCount +
+				'}';
+	}
+}
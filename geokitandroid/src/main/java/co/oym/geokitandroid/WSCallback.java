@@ -1,7 +1,9 @@
 package co.oym.geokitandroid;
 
 /**
- * A Web Service callback interface for asynchronous call.
+ * A Web Service callback interface for asynchronous call. <br>
+ * Callbacks are called on a transport thread, or an executor thread of the WSDispatcher, not on the calling thread. The exceptions are
+ * search responses answered from the search cache, and calls made after WSClient.shutdown().
  */
 public interface WSCallback<T> {
 
@@ -0,0 +1,255 @@
+package co.oym.geokitandroid;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker per endpoint, for failing fast while a Web Service is degraded. <br>
+ * The outcomes of the last calls of each endpoint are kept in a sliding window. When the rate of failed calls, or of calls slower than the
+ * slow call duration, reaches its threshold, the circuit of the endpoint opens: calls fail at once with WSException.CIRCUIT_OPEN instead of
+ * waiting out their timeouts. <br>
+ * After the open duration the circuit is half-open: a single probe call is let through, closing the circuit if it succeeds quickly,
+ * and opening it again otherwise. <br>
+ * Failures are network failures, unsuccessful HTTP status codes, timeouts and Web Service 5xx status codes. Canceled calls are ignored.
+ * Install it with WSClient.setCircuitBreaker().
+ */
+public class WSCircuitBreaker {
+
+	/** The state of a circuit letting calls through **/
+	public static final int CLOSED = 0;
+	/** The state of a circuit failing calls **/
+	public static final int OPEN = 1;
+	/** The state of a circuit letting a probe call through **/
+	public static final int HALF_OPEN = 2;
+
+	/** The default failure rate opening a circuit **/
+	public static final float DEFAULT_FAILURE_RATE_THRESHOLD = 0.5f;
+	/** The default slow call rate opening a circuit **/
+	public static final float DEFAULT_SLOW_CALL_RATE_THRESHOLD = 0.8f;
+	/** The default duration of a slow call, in milliseconds **/
+	public static final long DEFAULT_SLOW_CALL_DURATION = 5000;
+	/** The default duration of an open circuit, in milliseconds **/
+	public static final long DEFAULT_OPEN_DURATION = 30000;
+	/** The default number of calls of the sliding window **/
+	public static final int DEFAULT_WINDOW_SIZE = 20;
+	/** The default number of calls needed before a circuit can open **/
+	public static final int DEFAULT_MINIMUM_CALLS = 10;
+
+	private final float failureRateThreshold;
+	private final float slowCallRateThreshold;
+	private final long slowCallNanos;
+	private final long openNanos;
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+	private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+	private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+
+	private long rejectedCount;
+
+	private static class Circuit {
+		int state = CLOSED;
+		/** The outcomes of the last calls, 1 for failed and 2 for slow **/
+		byte[] outcomes;
+		int next;
+		int count;
+		int failed;
+		int slow;
+		/** The time the circuit was opened, in System.nanoTime() time **/
+		long openedAt;
+		boolean probing;
+	}
+
+	/**
+	 * Creates a circuit breaker with the default settings.
+	 */
+	public WSCircuitBreaker() {
+		this(DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_SLOW_CALL_RATE_THRESHOLD, DEFAULT_SLOW_CALL_DURATION, DEFAULT_OPEN_DURATION, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 *
+	 * @param failureRateThreshold the rate of failed calls opening a circuit, between 0 and 1
+	 * @param slowCallRateThreshold the rate of slow calls opening a circuit, between 0 and 1
+	 * @param slowCallDuration the duration above which a call is slow
+	 * @param openDuration the duration of an open circuit, before a probe call is let through
+	 * @param unit the unit of slowCallDuration and openDuration
+	 */
+	public WSCircuitBreaker(float failureRateThreshold, float slowCallRateThreshold, long slowCallDuration, long openDuration, TimeUnit unit) {
+		if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+			throw new IllegalArgumentException("invalid failureRateThreshold: " + failureRateThreshold);
+		}
+		if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) {
+			throw new IllegalArgumentException("invalid slowCallRateThreshold: " + slowCallRateThreshold);
+		}
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.slowCallNanos = unit.toNanos(slowCallDuration);
+		this.openNanos = unit.toNanos(openDuration);
+	}
+
+	/**
+	 * Set the size of the sliding window. The outcomes already observed are cleared.
+	 * @param windowSize the number of last calls taken into account
+	 * @param minimumCalls the number of calls needed before a circuit can open
+	 */
+	public synchronized void setWindow(int windowSize, int minimumCalls) {
+		if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+			throw new IllegalArgumentException("invalid window: " + windowSize + ", " + minimumCalls);
+		}
+		this.windowSize = windowSize;
+		this.minimumCalls = minimumCalls;
+		circuits.clear();
+	}
+
+	/**
+	 * @param endpoint
+	 * @return the state of the circuit of an endpoint: CLOSED, OPEN or HALF_OPEN
+	 */
+	public synchronized int getState(String endpoint) {
+		Circuit c = circuits.get(endpoint);
+		if (c == null) {
+			return CLOSED;
+		}
+		if (c.state == OPEN && System.nanoTime() - c.openedAt >= openNanos) {
+			return HALF_OPEN;
+		}
+		return c.state;
+	}
+
+	/**
+	 * Close the circuit of every endpoint and clear the outcomes observed.
+	 */
+	public synchronized void reset() {
+		circuits.clear();
+	}
+
+	/**
+	 * @return the number of calls failed because their circuit was open
+	 */
+	public synchronized long rejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * @param code a WSException code
+	 * @return true if a call failed with this code counts as a failure. By default network failures, timeouts and 5xx status codes do.
+	 */
+	protected boolean isFailure(String code) {
+		if (WSException.NETWORK_ERROR.equals(code) || WSException.TIMEOUT.equals(code)) {
+			return true;
+		}
+		return code != null && code.length() == 3 && code.charAt(0) == '5';
+	}
+
+	/**
+	 * Asks the permission to call an endpoint.
+	 * @return false if the circuit of the endpoint is open, or half-open with its probe call in flight
+	 */
+	synchronized boolean tryAcquire(String endpoint) {
+		Circuit c = circuit(endpoint);
+		if (c.state == OPEN && System.nanoTime() - c.openedAt >= openNanos) {
+			c.state = HALF_OPEN;
+			c.probing = false;
+		}
+		if (c.state == CLOSED) {
+			return true;
+		}
+		if (c.state == HALF_OPEN && !c.probing) {
+			c.probing = true;
+			return true;
+		}
+		rejectedCount++;
+		return false;
+	}
+
+	/**
+	 * Records the outcome of a permitted call.
+	 * @param endpoint
+	 * @param failed
+	 * @param nanos the duration of the call
+	 */
+	synchronized void onResult(String endpoint, boolean failed, long nanos) {
+		Circuit c = circuit(endpoint);
+		boolean slow = nanos >= slowCallNanos;
+		if (c.state == HALF_OPEN) {
+			if (failed || slow) {
+				open(c);
+			} else {
+				close(c);
+			}
+			return;
+		}
+		if (c.state != CLOSED) {
+			return;
+		}
+
+		int i = c.next;
+		c.next = (i + 1) % windowSize;
+		if (c.count == windowSize) {
+			// forget the oldest outcome
+			if ((c.outcomes[i] & 1) != 0) {
+				c.failed--;
+			}
+			if ((c.outcomes[i] & 2) != 0) {
+				c.slow--;
+			}
+		} else {
+			c.count++;
+		}
+		c.outcomes[i] = (byte) ((failed ? 1 : 0) | (slow ? 2 : 0));
+		if (failed) {
+			c.failed++;
+		}
+		if (slow) {
+			c.slow++;
+		}
+
+		if (c.count >= minimumCalls && (c.failed >= failureRateThreshold * c.count || c.slow >= slowCallRateThreshold * c.count)) {
+			open(c);
+		}
+	}
+
+	/**
+	 * Gives back the permission of a call ended without outcome, for example canceled.
+	 */
+	synchronized void release(String endpoint) {
+		Circuit c = circuit(endpoint);
+		if (c.state == HALF_OPEN) {
+			c.probing = false;
+		}
+	}
+
+	private void open(Circuit c) {
+		c.state = OPEN;
+		c.openedAt = System.nanoTime();
+		c.probing = false;
+	}
+
+	private void close(Circuit c) {
+		c.state = CLOSED;
+		c.probing = false;
+		c.next = 0;
+		c.count = 0;
+		c.failed = 0;
+		c.slow = 0;
+	}
+
+	private Circuit circuit(String endpoint) {
+		Circuit c = circuits.get(endpoint);
+		if (c == null) {
+			c = new Circuit();
+			c.outcomes = new byte[windowSize];
+			circuits.put(endpoint, c);
+		}
+		return c;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "WSCircuitBreaker{" +
+				"failureRateThreshold=" + failureRateThreshold +
+				", slowCallRateThreshold=" + slowCallRateThreshold +
+				", rejectedCount=" + rejectedCount +
+				'}';
+	}
+}
@@ -2,8 +2,19 @@ package co.oym.geokitandroid;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.mapbox.mapboxsdk.geometry.BoundingBox;
 import com.mapbox.mapboxsdk.geometry.LatLng;
 import com.squareup.okhttp.Callback;
@@ -12,10 +23,18 @@ import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.RequestBody;
 import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import okio.Buffer;
+import okio.BufferedSink;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * OnYourMap GIS Web Services Client. <br>
@@ -34,8 +53,40 @@ import java.util.concurrent.Executors;
 public class WSClient {
 
 	public static final String TAG = "mapbox_oym";
-	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	/** The Place search endpoint **/
+	public static final String PLACE_SEARCH = "/place/search";
+	/** The Place nearest endpoint **/
+	public static final String PLACE_NEAREST = "/place/nearest";
+	/** The Place autocomplete endpoint **/
+	public static final String PLACE_AUTOCOMPLETE = "/place/autocomplete";
+	/** The Route directions endpoint **/
+	public static final String ROUTE_DIRECTIONS = "/route/directions";
+
+	/** The default grid size in degrees for rounding viewports in search cache keys **/
+	public static final double DEFAULT_CACHE_VIEWPORT_GRID = 0.01;
+
 	private OkHttpClient client = new OkHttpClient();
+	private WSDispatcher dispatcher = new WSDispatcher();
+	private WSCache<Place.SearchResponse> searchCache;
+	private volatile boolean coalescing;
+	private volatile WSRetryPolicy retryPolicy;
+	private volatile WSHedgingPolicy hedgingPolicy;
+	private volatile WSCircuitBreaker circuitBreaker;
+	private volatile boolean packedGeometry;
+	private volatile WSMetrics metrics;
+	private volatile WSEventListener eventListener;
+	private final java.util.concurrent.atomic.AtomicLong callIds = new java.util.concurrent.atomic.AtomicLong();
+	/** The default timeouts in milliseconds, by endpoint **/
+	private final ConcurrentHashMap<String, Long> defaultTimeouts = new ConcurrentHashMap<String, Long>();
+	private static ScheduledExecutorService scheduler;
+	/** Set when the canceled timers are removed from the scheduler queue, from Android API level 21 **/
+	private static boolean removeOnCancel;
+	/** The timers canceled since the last purge of the scheduler queue, before Android API level 21 **/
+	private static final java.util.concurrent.atomic.AtomicInteger canceledTimers = new java.util.concurrent.atomic.AtomicInteger();
+	/** The calls in flight, by coalescing key **/
+	private final java.util.Map<String, DownloadTask<?>> inFlight = new java.util.HashMap<String, DownloadTask<?>>();
+	private double searchCacheViewportGrid = DEFAULT_CACHE_VIEWPORT_GRID;
 
 	private String webServiceUrl;
 	private String appKey;
@@ -78,19 +129,189 @@ public class WSClient {
 	}
 
 	/**
-	 * Call this method if you need to kill OkHttpClient thread pool when you need to exit your application
+	 * Get access to the dispatcher of asynchronous calls for settings concurrency limits per endpoint
+	 * @return
 	 */
-	public void shutdown() {
-		client.getDispatcher().getExecutorService().shutdown();
+	public WSDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * Replace the dispatcher of asynchronous calls, for example with a dispatcher running calls on your own ExecutorService.
+	 * @param dispatcher
+	 */
+	public void setDispatcher(WSDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Enable a cache for Place search responses, or disable it with null. <br>
+	 * Requests are keyed by their normalized fields, with the viewport rounded to DEFAULT_CACHE_VIEWPORT_GRID.
+	 * @param cache
+	 */
+	public void setSearchCache(WSCache<Place.SearchResponse> cache) {
+		setSearchCache(cache, DEFAULT_CACHE_VIEWPORT_GRID);
+	}
+
+	/**
+	 * Enable a cache for Place search responses, or disable it with null.
+	 * @param cache
+	 * @param viewportGrid the grid size in degrees for rounding viewports in cache keys
+	 */
+	public void setSearchCache(WSCache<Place.SearchResponse> cache, double viewportGrid) {
+		this.searchCache = cache;
+		this.searchCacheViewportGrid = viewportGrid;
+	}
+
+	/**
+	 * @return the Place search cache, or null if disabled
+	 */
+	public WSCache<Place.SearchResponse> getSearchCache() {
+		return searchCache;
+	}
+
+	/**
+	 * Enable coalescing of identical asynchronous calls: a call with the same endpoint, appKey, response class and serialized request as a call in flight
+	 * does not open a new HTTP call but waits for the first one, whose response is given to every callback. <br>
+	 * The response object is then shared between callbacks and must not be modified. Disabled by default.
+	 * @param coalescing
+	 */
+	public void setCoalescingEnabled(boolean coalescing) {
+		this.coalescing = coalescing;
+	}
+
+	public boolean isCoalescingEnabled() {
+		return coalescing;
+	}
+
+	/**
+	 * Set the retry policy of transient failures, for synchronous and asynchronous calls.
+	 * @param retryPolicy null for no retry (the default)
+	 */
+	public void setRetryPolicy(WSRetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	public WSRetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Set the hedging policy of asynchronous calls. Synchronous calls are never hedged.
+	 * @param hedgingPolicy null for no hedging (the default)
+	 */
+	public void setHedgingPolicy(WSHedgingPolicy hedgingPolicy) {
+		this.hedgingPolicy = hedgingPolicy;
+	}
+
+	public WSHedgingPolicy getHedgingPolicy() {
+		return hedgingPolicy;
+	}
+
+	/**
+	 * Set the circuit breaker of the endpoints, for synchronous and asynchronous calls.
+	 * While the circuit of an endpoint is open, its calls fail at once with WSException.CIRCUIT_OPEN.
+	 * @param circuitBreaker null for no circuit breaker (the default)
+	 */
+	public void setCircuitBreaker(WSCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public WSCircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Set how the route geometry of this client's responses is decoded. <br>
+	 * When enabled, Route.Response.positions is a Route.Polyline and Route.Response.levels a Route.Levels: read-only lists backed by
+	 * primitive arrays, a few bytes per point instead of one LatLng and one Integer. Disabled by default. Other clients are not affected.
+	 * @param packed
+	 */
+	public void setPackedGeometry(boolean packed) {
+		this.packedGeometry = packed;
+	}
+
+	public boolean isPackedGeometry() {
+		return packedGeometry;
+	}
+
+	/**
+	 * Set the metrics recording the histograms of the calls, per endpoint.
+	 * @param metrics null for no metrics (the default)
+	 */
+	public void setMetrics(WSMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public WSMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the listener of the stages of the calls.
+	 * @param eventListener null for no listener (the default)
+	 */
+	public void setEventListener(WSEventListener eventListener) {
+		this.eventListener = eventListener;
 	}
 
-	private String jsonify(Object obj) throws Exception {
-		java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
-		JSON.mapper.writeValue(out, obj);
+	public WSEventListener getEventListener() {
+		return eventListener;
+	}
+
+	/**
+	 * Set the default timeout of the calls of an endpoint, used when no timeout is given to a call. <br>
+	 * The timeout is a deadline for the whole call, including the time waiting in the dispatcher queue, the network exchange and the decoding.
+	 * When it runs out, the call is abandoned and fails with WSException.TIMEOUT.
+	 * @param endpoint
+	 * @param timeout 0 for no timeout
+	 * @param unit
+	 */
+	public void setDefaultTimeout(String endpoint, long timeout, TimeUnit unit) {
+		if (timeout <= 0) {
+			defaultTimeouts.remove(endpoint);
+		} else {
+			defaultTimeouts.put(endpoint, Math.max(1, unit.toMillis(timeout)));
+		}
+	}
+
+	/**
+	 * Prepares the first calls, which otherwise pay for the DNS resolution, the TCP and TLS connection to the Web Service, and the building of
+	 * the JSON serializers and deserializers. <br>
+	 * Resolves the Web Service host, opens a connection kept in the OkHttp connection pool with a HEAD request, and primes the JSON readers
+	 * and writer for the requests and responses of every Web Service. <br>
+	 * This method blocks: call it from a background thread, for example at application startup. Failures are ignored: the first calls
+	 * will just pay for what could not be prepared.
+	 * @return true if a connection to the Web Service has been opened
+	 */
+	public boolean warmUp() {
+		JSON.prime();
+
+		if (webServiceUrl == null || webServiceUrl.length() == 0) {
+			return false;
+		}
+		try {
+			java.net.InetAddress.getAllByName(new java.net.URL(webServiceUrl).getHost());
+
+			com.squareup.okhttp.Request.Builder builder = new com.squareup.okhttp.Request.Builder().url(webServiceUrl).head();
+			if (appReferer != null) {
+				builder.addHeader("Referer", appReferer);
+			}
+			// any status will do: the connection is pooled once the response is consumed
+			com.squareup.okhttp.Response response = client.newCall(builder.build()).execute();
+			response.body().close();
+			return true;
+
+		} catch (Exception ex) {
+			return false;
+		}
+	}
 
-		final byte[] data = out.toByteArray();
-		String str = new String(data);
-		return str;
+	/**
+	 * Call this method if you need to kill OkHttpClient thread pool when you need to exit your application
+	 */
+	public void shutdown() {
+		client.getDispatcher().getExecutorService().shutdown();
 	}
 
 	/**
@@ -101,43 +322,415 @@ public class WSClient {
 	 * @return
 	 * @throws Exception
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T> T decodeContent(String json, Class<T> outputClass) throws Exception {
-		
-		WSResponse<T> resp = null;
+		return decodeEnvelope(JSON.mapper.getFactory().createParser(json), outputClass, false);
+	}
+
+	/**
+	 * Do not use manually. Only used internally for decoding Web Services content straight from the response body stream,
+	 * without holding the whole payload in memory.
+	 * @param in
+	 * @param outputClass
+	 * @param <T>
+	 * @return
+	 * @throws Exception
+	 */
+	public static <T> T decodeContent(InputStream in, Class<T> outputClass) throws Exception {
+		return decodeEnvelope(JSON.mapper.getFactory().createParser(in), outputClass, false);
+	}
+
+	/**
+	 * Decodes a WSResponse envelope in one pass: "data" is bound to outputClass when statusCode is OK, or read as the error message otherwise.
+	 * If "data" comes before "statusCode", its tokens are buffered until the status is known, so the payload is never parsed twice.
+	 * @param packedGeometry true to decode route geometry into Route.Polyline and Route.Levels
+	 */
+	private static <T> T decodeEnvelope(JsonParser parser, Class<T> outputClass, boolean packedGeometry) throws Exception {
 		try {
-			JavaType javaType = JSON.mapper.getTypeFactory().constructParametrizedType(WSResponse.class, WSResponse.class, outputClass);
-			resp = JSON.mapper.readValue(json, javaType);
-		} catch (Exception ex) {
-			JavaType javaType = JSON.mapper.getTypeFactory().constructParametrizedType(WSResponse.class, WSResponse.class, String.class);
-			resp = JSON.mapper.readValue(json, javaType);
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException("oym response is not an object", parser.getCurrentLocation());
+			}
+			String statusCode = null;
+			TokenBuffer pending = null;
+			T data = null;
+			String message = null;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				parser.nextToken();
+				if ("statusCode".equals(field)) {
+					statusCode = parser.getValueAsString();
+					if (pending != null) {
+						JsonParser buffered = pending.asParser(parser.getCodec());
+						buffered.nextToken();
+						if (WSResponse.OK.equals(statusCode)) {
+							data = JSON.dataReader(outputClass, packedGeometry).<T>readValue(buffered);
+						} else {
+							message = readErrorMessage(buffered);
+						}
+						pending = null;
+					}
+
+				} else if ("data".equals(field)) {
+					if (statusCode == null) {
+						pending = new TokenBuffer(parser);
+						pending.copyCurrentStructure(parser);
+					} else if (WSResponse.OK.equals(statusCode)) {
+						data = JSON.dataReader(outputClass, packedGeometry).<T>readValue(parser);
+					} else {
+						message = readErrorMessage(parser);
+					}
+
+				} else {
+					parser.skipChildren();
+				}
+			}
+			if (statusCode == null || !statusCode.equals(WSResponse.OK)) {
+				if (pending != null) {
+					JsonParser buffered = pending.asParser(parser.getCodec());
+					buffered.nextToken();
+					message = readErrorMessage(buffered);
+				}
+				throw new WSException(statusCode, message);
+			}
+			return data;
+
+		} finally {
+			parser.close();
+		}
+	}
+
+	private static String readErrorMessage(JsonParser parser) throws IOException {
+		JsonToken token = parser.getCurrentToken();
+		if (token == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		if (token.isScalarValue()) {
+			return parser.getText();
+		}
+		return JSON.mapper.readTree(parser).toString();
+	}
+
+	private <T> T execute(String endpoint, com.squareup.okhttp.Request request, Class<T> outputClass, long deadline,
+			WSEventListener events, long callId) throws Exception {
+		WSRetryPolicy policy = retryPolicy;
+		if (policy != null) {
+			policy.onCall(endpoint);
+		}
+		WSCircuitBreaker breaker = circuitBreaker;
+		for (int retry = 0; ; retry++) {
+			if (breaker != null && !breaker.tryAcquire(endpoint)) {
+				throw new WSException(WSException.CIRCUIT_OPEN, "circuit open: " + endpoint);
+			}
+			long start = System.nanoTime();
+			try {
+				T result = executeOnce(endpoint, request, outputClass, deadline, events, callId);
+				if (breaker != null) {
+					breaker.onResult(endpoint, false, System.nanoTime() - start);
+				}
+				return result;
+
+			} catch (Exception ex) {
+				if (breaker != null) {
+					breaker.onResult(endpoint, isFailure(breaker, ex), System.nanoTime() - start);
+				}
+				long delay = policy != null && isTransient(policy, ex) ? policy.delay(endpoint, retry, deadline) : -1;
+				if (delay < 0) {
+					throw ex;
+				}
+				TimeUnit.NANOSECONDS.sleep(delay);
+			}
 		}
-		if (resp == null || !resp.statusCode.equals("200")) {
-			throw new WSException(resp.statusCode, (String) resp.data);
+	}
+
+	private static boolean isFailure(WSCircuitBreaker breaker, Exception ex) {
+		if (ex instanceof JsonProcessingException) {
+			// a parsing error, as for asynchronous calls
+			return breaker.isFailure(WSException.PARSING_ERROR);
+		}
+		if (ex instanceof WSException) {
+			return breaker.isFailure(((WSException) ex).code);
+		}
+		return ex instanceof IOException;
+	}
+
+	private static boolean isTransient(WSRetryPolicy policy, Exception ex) {
+		if (ex instanceof WSException) {
+			WSException wsEx = (WSException) ex;
+			return wsEx.httpStatus != 0 ? policy.isTransient(wsEx.httpStatus) : policy.isTransient(wsEx.code);
 		}
-		return resp.data;
+		return ex instanceof IOException && !(ex instanceof JsonProcessingException) && policy.isTransient((IOException) ex);
 	}
 
-	private String execute(com.squareup.okhttp.Request request) throws Exception {
+	private <T> T executeOnce(String endpoint, com.squareup.okhttp.Request request, Class<T> outputClass, long deadline,
+			WSEventListener events, long callId) throws Exception {
 		// POST
+		final com.squareup.okhttp.Call call = clientFor(client, deadline).newCall(request);
+		java.util.concurrent.ScheduledFuture<?> watchdog = null;
+		if (deadline != 0) {
+			// abandon the call, even while decoding, when the budget runs out
+			watchdog = scheduler().schedule(new Runnable() {
+				public void run() {
+					call.cancel();
+				}
+			}, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
 		try {
-			com.squareup.okhttp.Response response = client.newCall(request).execute();
-			if (response.isSuccessful()) {
-        		String content = response.body().string();
-				return content;
-				
-			} else {
-				throw new Exception("network error: " + response.code());
+			long sentAt = System.nanoTime();
+			if (events != null) {
+				events.networkStart(callId, endpoint, sentAt);
+			}
+			com.squareup.okhttp.Response response = call.execute();
+			if (events != null) {
+				events.headersReceived(callId, System.nanoTime(), response.code());
+			}
+			ResponseBody body = response.body();
+			try {
+				if (!response.isSuccessful()) {
+					throw new WSException(response.code());
+				}
+				return decode(metrics, events, endpoint, callId, response, sentAt, outputClass, packedGeometry);
+
+			} finally {
+				body.close();
 			}
 
-		} catch (Exception ex) {
+		} catch (IOException ex) {
+			if (deadline != 0 && System.nanoTime() - deadline >= 0) {
+				throw new WSException(WSException.TIMEOUT, "timeout");
+			}
 			throw ex;
 
 		} finally {
+			cancel(watchdog);
+		}
+	}
+
+	/**
+	 * Decodes a successful response, recording its metrics and firing its events if enabled.
+	 * @param metrics null if disabled
+	 * @param events null if disabled
+	 * @param endpoint
+	 * @param callId
+	 * @param response
+	 * @param sentAt the time the request was sent, in System.nanoTime() time
+	 * @param outputClass
+	 * @param packedGeometry true to decode route geometry into Route.Polyline and Route.Levels
+	 */
+	private static <T> T decode(WSMetrics metrics, WSEventListener events, String endpoint, long callId, com.squareup.okhttp.Response response,
+			long sentAt, Class<T> outputClass, boolean packedGeometry) throws Exception {
+		if (metrics == null && events == null) {
+			return decodeEnvelope(JSON.mapper.getFactory().createParser(response.body().byteStream()), outputClass, packedGeometry);
+		}
+		long headersAt = System.nanoTime();
+		if (events != null) {
+			events.decodeStart(callId, headersAt);
+		}
+		WSMetrics.CountingInputStream in = new WSMetrics.CountingInputStream(response.body().byteStream());
+		T data = decodeEnvelope(JSON.mapper.getFactory().createParser(in), outputClass, packedGeometry);
+		long decodedAt = System.nanoTime();
+		if (events != null) {
+			events.bodyRead(callId, decodedAt, in.count);
+			events.decodeEnd(callId, decodedAt);
+		}
+		if (metrics == null) {
+			return data;
+		}
+
+		metrics.recordNanos(endpoint, WSMetrics.LATENCY, decodedAt - sentAt);
+		metrics.recordNanos(endpoint, WSMetrics.TIME_TO_FIRST_BYTE, headersAt - sentAt);
+		metrics.recordNanos(endpoint, WSMetrics.DECODE_TIME, decodedAt - headersAt);
+		RequestBody requestBody = response.request().body();
+		metrics.record(endpoint, WSMetrics.REQUEST_BYTES, requestBody instanceof JsonBody ? ((JsonBody) requestBody).written : requestBody.contentLength());
+		metrics.record(endpoint, WSMetrics.RESPONSE_BYTES, in.count);
+		if (data instanceof Place.SearchResponse) {
+			metrics.record(endpoint, WSMetrics.SERVER_TIME, ((Place.SearchResponse) data).time);
+		} else if (data instanceof Place.NearestResponse) {
+			metrics.record(endpoint, WSMetrics.SERVER_TIME, ((Place.NearestResponse) data).time);
+		} else if (data instanceof Place.AutocompleteResponse) {
+			metrics.record(endpoint, WSMetrics.SERVER_TIME, ((Place.AutocompleteResponse) data).time);
+		}
+		return data;
+	}
+
+	/**
+	 * @return the client to use for a call with a deadline: its connect, read and write timeouts are set to the remaining budget
+	 * @throws WSException if the deadline is already over
+	 */
+	private static OkHttpClient clientFor(OkHttpClient client, long deadline) throws WSException {
+		if (deadline == 0) {
+			return client;
+		}
+		long remainingNanos = deadline - System.nanoTime();
+		if (remainingNanos <= 0) {
+			throw new WSException(WSException.TIMEOUT, "timeout");
+		}
+		// rounded up, so the transport never times out before the deadline
+		long remaining = TimeUnit.NANOSECONDS.toMillis(remainingNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+		// the clone shares the connection pool
+		OkHttpClient c = client.clone();
+		c.setConnectTimeout(remaining, TimeUnit.MILLISECONDS);
+		c.setReadTimeout(remaining, TimeUnit.MILLISECONDS);
+		c.setWriteTimeout(remaining, TimeUnit.MILLISECONDS);
+		return c;
+	}
+
+	/**
+	 * @param endpoint
+	 * @param timeout the timeout of the call in milliseconds, or 0 for the default timeout of the endpoint
+	 * @return the deadline of a call starting now, in System.nanoTime() time, or 0 if none
+	 */
+	private long deadline(String endpoint, long timeout) {
+		if (timeout <= 0) {
+			Long defaultTimeout = defaultTimeouts.get(endpoint);
+			timeout = defaultTimeout != null ? defaultTimeout : 0;
+		}
+		if (timeout <= 0) {
+			return 0;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		// 0 means no deadline
+		return deadline != 0 ? deadline : 1;
+	}
+
+	/**
+	 * A shared timer for deadlines and timeouts.
+	 */
+	static synchronized ScheduledExecutorService scheduler() {
+		if (scheduler == null) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "WSClient timer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			try {
+				executor.setRemoveOnCancelPolicy(true);
+				removeOnCancel = true;
+			} catch (NoSuchMethodError e) {
+				// before Android API level 21, canceled timers are purged by cancel()
+			}
+			scheduler = executor;
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Cancels a timer of the shared scheduler, so its task and what it references are released before its delay. <br>
+	 * Without the remove on cancel policy, the queue is purged every 64 canceled timers.
+	 * @param timer the timer, or null
+	 */
+	static void cancel(java.util.concurrent.ScheduledFuture<?> timer) {
+		if (timer == null || !timer.cancel(false)) {
+			return;
+		}
+		if (!removeOnCancel && canceledTimers.incrementAndGet() % 64 == 0) {
+			((ScheduledThreadPoolExecutor) scheduler()).purge();
+		}
+	}
+
+	/**
+	 * The cache weight of a search response: one per place plus one per geometry point.
+	 */
+	private static long weight(Place.SearchResponse response) {
+		long weight = 1;
+		for (Place place : response.places) {
+			weight++;
+			if (place.geometry != null && place.geometry.raw != null) {
+				for (java.util.List<LatLng> part : place.geometry.raw) {
+					weight += part.size();
+				}
+			}
+		}
+		return weight;
+	}
+
+	private static void closeQuietly(ResponseBody body) {
+		try {
+			body.close();
+		} catch (IOException ex) {
+		}
+	}
+
+	private com.squareup.okhttp.Request newRequest(String endpoint, String appKey, RequestBody body) {
+		return new com.squareup.okhttp.Request.Builder()
+				.url(webServiceUrl + endpoint)
+				.post(body)
+				.addHeader("Content-Type", "application/json; charset=utf-8")
+				.addHeader("appKey", appKey)
+				.addHeader("Referer", appReferer)
+				.build();
+	}
+
+	/**
+	 * Executes a call synchronously, or asynchronously if a callback is provided. <br>
+	 * For asynchronous calls, the request must be a snapshot the caller will not modify: it is serialized and wrapped into an OkHttp request
+	 * only when the call is started, off the calling thread.
+	 */
+	private <T> T call(String endpoint, String appKey, Object request, Class<T> outputClass, WSCallback<T> callback, long timeout) throws Exception {
+
+		long deadline = deadline(endpoint, timeout);
+		if (callback == null) {
+			WSEventListener events = eventListener;
+			long callId = callIds.incrementAndGet();
+			return execute(endpoint, newRequest(endpoint, appKey, new JsonBody(request, events, callId)), outputClass, deadline, events, callId);
+
+		} else {
+			enqueue(endpoint, appKey, request, outputClass, callback, deadline);
+			return null;
+		}
+	}
+
+	/**
+	 * Submits an asynchronous call. The request must be a snapshot the caller will not modify.
+	 * @param timeout the timeout of the call in milliseconds, or 0 for the default timeout of the endpoint
+	 * @return the future of the call, canceling the call when canceled
+	 */
+	<T> WSFuture<T> submit(String endpoint, String appKey, Object request, Class<T> outputClass, long timeout) {
+		WSFuture<T> future = new WSFuture<T>();
+		final DownloadTask<T> task = enqueue(endpoint, appKey, request, outputClass, future.completer(), deadline(endpoint, timeout));
+		future.setCanceler(new Runnable() {
+			public void run() {
+				task.cancel();
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Enqueues an asynchronous call. The request must be a snapshot the caller will not modify.
+	 * @return the call, for canceling it
+	 */
+	<T> DownloadTask<T> enqueue(String endpoint, String appKey, Object request, Class<T> outputClass, WSCallback<T> callback) {
+		return enqueue(endpoint, appKey, request, outputClass, callback, deadline(endpoint, 0));
+	}
+
+	/**
+	 * Enqueues an asynchronous call. The request must be a snapshot the caller will not modify.
+	 * @param deadline the deadline of the call in System.nanoTime() time, or 0 if none
+	 * @return the call, for canceling it
+	 */
+	<T> DownloadTask<T> enqueue(String endpoint, String appKey, Object request, Class<T> outputClass, WSCallback<T> callback, long deadline) {
+		final DownloadTask<T> task = new DownloadTask<T>(endpoint, appKey, request, outputClass, callback, deadline);
+		if (task.events != null) {
+			task.events.callEnqueued(task.callId, endpoint, System.nanoTime());
 		}
+		WSRetryPolicy policy = retryPolicy;
+		if (policy != null) {
+			policy.onCall(endpoint);
+		}
+		if (deadline != 0) {
+			task.setExpiry(scheduler().schedule(new Runnable() {
+				public void run() {
+					task.expire();
+				}
+			}, deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+		}
+		dispatcher.enqueue(task);
+		return task;
 	}
 
 	public static final MediaType JSON_TYPE = MediaType.parse("application/json; charset=utf-8");
+	private static final java.nio.charset.Charset UTF_8 = java.nio.charset.Charset.forName("UTF-8");
 
 	public RouteWS RouteWS = new RouteWS();
 	public PlaceWS PlaceWS = new PlaceWS();
@@ -152,6 +745,7 @@ public class WSClient {
 		/**
 		 * Search for an address and get its WGS84 coordinate. <br>
 		 * If a callback object is provided, then the method will be executed asynchronously. If callback is null, then the method will be executed synchronously.
+		 * If a search cache is enabled, cached responses are returned (or given to the callback on the calling thread) without any call.
 		 * @param request
 		 * @param callback
 		 * @return
@@ -171,81 +765,292 @@ public class WSClient {
 		 * @throws Exception
 		 */
 		public Place.SearchResponse search(String appKey, Place.SearchRequest request, final WSCallback<Place.SearchResponse> callback) throws Exception {
-			
-			String jsonObject = jsonify(request);
-			
-			com.squareup.okhttp.Request okReq = new com.squareup.okhttp.Request.Builder()
-			.url(webServiceUrl + "/place/search")
-			.post(RequestBody.create(JSON_TYPE, jsonObject))
-	        .addHeader("Content-Type", "application/json; charset=utf-8")
-			.addHeader("appKey", appKey)
-	        .addHeader("Referer", appReferer)
-			.build();
-
-			if (callback == null) {
-				String content = execute(okReq);
-				return decodeContent(content, Place.SearchResponse.class);
-				
-			} else {
-				DownloadTask<Place.SearchResponse> task = new DownloadTask<Place.SearchResponse>(client, DownloadTask.PLACE_SEARCH, okReq, callback);
-				executor.submit(task);
-				return null;
-			}
-		}
-
-		/**
-		 * Get nearest address from a WGS84 coordinate.
-		 * If a callback object is provided, then the method will be executed asynchronously. If callback is null, then the method will be executed synchronously.
-		 * @param request
-		 * @param callback
-		 * @return
-		 * @throws Exception
-		 */
-		public Place.NearestResponse nearest(Place.NearestRequest request, final WSCallback<Place.NearestResponse> callback) throws Exception {
-			return nearest(appKey, request, callback);
+			return search(appKey, request, callback, 0);
 		}
 
 		/**
-		 * Get nearest address from a WGS84 coordinate.
+ 		 * Search for an address and get its WGS84 coordinate.
 		 * If a callback object is provided, then the method will be executed asynchronously. If callback is null, then the method will be executed synchronously.
 		 * @param appKey
 		 * @param request
 		 * @param callback
+		 * @param timeout the timeout of the call in milliseconds, or 0 for the default timeout of the endpoint. See WSClient.setDefaultTimeout().
 		 * @return
 		 * @throws Exception
 		 */
-		public Place.NearestResponse nearest(String appKey, Place.NearestRequest request, final WSCallback<Place.NearestResponse> callback) throws Exception {
-
-			String jsonObject = jsonify(request);
+		public Place.SearchResponse search(String appKey, Place.SearchRequest request, final WSCallback<Place.SearchResponse> callback, long timeout) throws Exception {
+			final WSCache<Place.SearchResponse> cache = searchCache;
+			if (cache == null) {
+				return call(PLACE_SEARCH, appKey, callback != null ? request.copy() : request, Place.SearchResponse.class, callback, timeout);
+			}
 
-			com.squareup.okhttp.Request okReq = new com.squareup.okhttp.Request.Builder()
-					.url(webServiceUrl + "/place/nearest")
-					.post(RequestBody.create(JSON_TYPE, jsonObject))
-					.addHeader("Content-Type", "application/json; charset=utf-8")
-					.addHeader("appKey", appKey)
-					.addHeader("Referer", appReferer)
-					.build();
+			final String key = appKey + '|' + request.cacheKey(searchCacheViewportGrid);
+			Place.SearchResponse cached = cache.get(key);
+			if (cached != null) {
+				if (callback == null) {
+					return cached;
+				}
+				// answered on the calling thread
+				callback.onResponse(cached);
+				return null;
+			}
 
 			if (callback == null) {
-				String content = execute(okReq);
-				return decodeContent(content, Place.NearestResponse.class);
+				Place.SearchResponse response = call(PLACE_SEARCH, appKey, request, Place.SearchResponse.class, null, timeout);
+				if (response != null) {
+					cache.put(key, response, weight(response));
+				}
+				return response;
 
 			} else {
-				DownloadTask<Place.NearestResponse> task = new DownloadTask<Place.NearestResponse>(client, DownloadTask.PLACE_NEAREST, okReq, callback);
-				executor.submit(task);
+				call(PLACE_SEARCH, appKey, request.copy(), Place.SearchResponse.class, new WSCallback<Place.SearchResponse>() {
+					public void onResponse(Place.SearchResponse response) {
+						if (response != null) {
+							cache.put(key, response, weight(response));
+						}
+						callback.onResponse(response);
+					}
+
+					public void onFailure(String errorMessage) {
+						callback.onFailure(errorMessage);
+					}
+				}, timeout);
 				return null;
 			}
 		}
 
 		/**
-		 * Get address suggests from an autocomplete string.
-		 * If a callback object is provided, then the method will be executed asynchronously. If callback is null, then the method will be executed synchronously.
+		 * Search for an address and get its WGS84 coordinate, asynchronously. <br>
+		 * If a search cache is enabled, a cached response is returned as a completed future.
 		 * @param request
-		 * @param callback
-		 * @return
-		 * @throws Exception
+		 * @return the future response, canceling the call when canceled
 		 */
-		public Place.AutocompleteResponse autocomplete(Place.AutocompleteRequest request, final WSCallback<Place.AutocompleteResponse> callback) throws Exception {
+		public WSFuture<Place.SearchResponse> searchAsync(Place.SearchRequest request) {
+			return searchAsync(appKey, request);
+		}
+
+		/**
+		 * Search for an address and get its WGS84 coordinate, asynchronously. <br>
+		 * If a search cache is enabled, a cached response is returned as a completed future.
+		 * @param appKey
+		 * @param request
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Place.SearchResponse> searchAsync(String appKey, Place.SearchRequest request) {
+			return searchAsync(appKey, request, 0);
+		}
+
+		/**
+		 * Search for an address and get its WGS84 coordinate, asynchronously. <br>
+		 * If a search cache is enabled, a cached response is returned as a completed future.
+		 * @param appKey
+		 * @param request
+		 * @param timeout the timeout of the call in milliseconds, or 0 for the default timeout of the endpoint. See WSClient.setDefaultTimeout().
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Place.SearchResponse> searchAsync(String appKey, Place.SearchRequest request, long timeout) {
+			final WSCache<Place.SearchResponse> cache = searchCache;
+			if (cache == null) {
+				return submit(PLACE_SEARCH, appKey, request.copy(), Place.SearchResponse.class, timeout);
+			}
+
+			final String key = appKey + '|' + request.cacheKey(searchCacheViewportGrid);
+			Place.SearchResponse cached = cache.get(key);
+			if (cached != null) {
+				return WSFuture.succeeded(cached);
+			}
+			return submit(PLACE_SEARCH, appKey, request.copy(), Place.SearchResponse.class, timeout).addListener(new WSCallback<Place.SearchResponse>() {
+				public void onResponse(Place.SearchResponse response) {
+					if (response != null) {
+						cache.put(key, response, weight(response));
+					}
+				}
+
+				public void onFailure(String errorMessage) {
+				}
+			});
+		}
+
+		/**
+		 * Search for a batch of addresses, with WSBatch.DEFAULT_CONCURRENCY concurrent calls. <br>
+		 * The method blocks until every request is done. A failed request does not abort the batch.
+		 * @param requests
+		 * @return the results, in the order of the requests
+		 * @throws InterruptedException
+		 */
+		public java.util.List<WSBatch.Result<Place.SearchResponse>> searchBatch(java.util.List<Place.SearchRequest> requests) throws InterruptedException {
+			return searchBatch(appKey, requests, WSBatch.DEFAULT_CONCURRENCY);
+		}
+
+		/**
+		 * Search for a batch of addresses. <br>
+		 * The method blocks until every request is done. A failed request does not abort the batch.
+		 * @param appKey
+		 * @param requests
+		 * @param concurrency the maximum number of concurrent calls
+		 * @return the results, in the order of the requests
+		 * @throws InterruptedException
+		 */
+		public java.util.List<WSBatch.Result<Place.SearchResponse>> searchBatch(String appKey, java.util.List<Place.SearchRequest> requests, int concurrency) throws InterruptedException {
+			WSBatch.Collector<Place.SearchResponse> collector = new WSBatch.Collector<Place.SearchResponse>();
+			searchBatch(appKey, requests.iterator(), concurrency, false, collector);
+			return collector.results;
+		}
+
+		/**
+		 * Search for a stream of addresses, for example read from a file. <br>
+		 * Requests are read while fewer than concurrency calls are in flight, and the method blocks until every result has been given to the callback.
+		 * @param appKey
+		 * @param requests
+		 * @param concurrency the maximum number of concurrent calls
+		 * @param ordered if true, results are given in the order of the requests. Otherwise they are given as soon as available, with their index.
+		 * @param callback
+		 * @throws InterruptedException
+		 */
+		public void searchBatch(final String appKey, java.util.Iterator<Place.SearchRequest> requests, int concurrency, boolean ordered, WSBatch.Callback<Place.SearchResponse> callback) throws InterruptedException {
+			WSBatch.run(requests, concurrency, ordered, new WSBatch.Runner<Place.SearchRequest, Place.SearchResponse>() {
+				public void call(Place.SearchRequest request, WSCallback<Place.SearchResponse> callback) throws Exception {
+					search(appKey, request, callback);
+				}
+			}, callback);
+		}
+
+		/**
+		 * Get nearest address from a WGS84 coordinate.
+		 * If a callback object is provided, then the method will be executed asynchronously. If callback is null, then the method will be executed synchronously.
+		 * @param request
+		 * @param callback
+		 * @return
+		 * @throws Exception
+		 */
+		public Place.NearestResponse nearest(Place.NearestRequest request, final WSCallback<Place.NearestResponse> callback) throws Exception {
+			return nearest(appKey, request, callback);
+		}
+
+		/**
+		 * Get nearest address from a WGS84 coordinate.
+		 * If a callback object is provided, then the method will be executed asynchronously. If callback is null, then the method will be executed synchronously.
+		 * @param appKey
+		 * @param request
+		 * @param callback
+		 * @return
+		 * @throws Exception
+		 */
+		public Place.NearestResponse nearest(String appKey, Place.NearestRequest request, final WSCallback<Place.NearestResponse> callback) throws Exception {
+			return nearest(appKey, request, callback, 0);
+		}
+
+		/**
+		 * Get nearest address from a WGS84 coordinate.
+		 * If a callback object is provided, then the method will be executed asynchronously. If callback is null, then the method will be executed synchronously.
+		 * @param appKey
+		 * @param request
+		 * @param callback
+		 * @param timeout the timeout of the call in milliseconds, or 0 for the default timeout of the endpoint. See WSClient.setDefaultTimeout().
+		 * @return
+		 * @throws Exception
+		 */
+		public Place.NearestResponse nearest(String appKey, Place.NearestRequest request, final WSCallback<Place.NearestResponse> callback, long timeout) throws Exception {
+			return call(PLACE_NEAREST, appKey, callback != null ? request.copy() : request, Place.NearestResponse.class, callback, timeout);
+		}
+
+		/**
+		 * Get nearest address from a WGS84 coordinate, asynchronously.
+		 * @param request
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Place.NearestResponse> nearestAsync(Place.NearestRequest request) {
+			return nearestAsync(appKey, request);
+		}
+
+		/**
+		 * Get nearest address from a WGS84 coordinate, asynchronously.
+		 * @param appKey
+		 * @param request
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Place.NearestResponse> nearestAsync(String appKey, Place.NearestRequest request) {
+			return nearestAsync(appKey, request, 0);
+		}
+
+		/**
+		 * Get nearest address from a WGS84 coordinate, asynchronously.
+		 * @param appKey
+		 * @param request
+		 * @param timeout the timeout of the call in milliseconds, or 0 for the default timeout of the endpoint. See WSClient.setDefaultTimeout().
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Place.NearestResponse> nearestAsync(String appKey, Place.NearestRequest request, long timeout) {
+			return submit(PLACE_NEAREST, appKey, request.copy(), Place.NearestResponse.class, timeout);
+		}
+
+		/**
+		 * Get nearest addresses for a batch of WGS84 coordinates, for example a GPS trace. <br>
+		 * Coordinates are snapped to a grid of cellSize meters, and only one call is done per distinct cell (and radius, maxResponses and lang),
+		 * with the first request of the cell. Its response is given to every request of the cell, and must not be modified. <br>
+		 * The method blocks until every request is done. A failed request does not abort the batch.
+		 * @param requests
+		 * @param cellSize the grid cell size in meters, for example 25
+		 * @return the results, in the order of the requests
+		 * @throws InterruptedException
+		 */
+		public java.util.List<WSBatch.Result<Place.NearestResponse>> nearestBatch(java.util.List<Place.NearestRequest> requests, double cellSize) throws InterruptedException {
+			return nearestBatch(appKey, requests, cellSize, WSBatch.DEFAULT_CONCURRENCY);
+		}
+
+		/**
+		 * Get nearest addresses for a batch of WGS84 coordinates, for example a GPS trace. <br>
+		 * Coordinates are snapped to a grid of cellSize meters, and only one call is done per distinct cell (and radius, maxResponses and lang),
+		 * with the first request of the cell. Its response is given to every request of the cell, and must not be modified. <br>
+		 * The method blocks until every request is done. A failed request does not abort the batch.
+		 * @param appKey
+		 * @param requests
+		 * @param cellSize the grid cell size in meters, for example 25
+		 * @param concurrency the maximum number of concurrent calls
+		 * @return the results, in the order of the requests
+		 * @throws InterruptedException
+		 */
+		public java.util.List<WSBatch.Result<Place.NearestResponse>> nearestBatch(final String appKey, java.util.List<Place.NearestRequest> requests, double cellSize, int concurrency) throws InterruptedException {
+			// group the requests by cell, keeping the first request of each cell
+			java.util.Map<String, Integer> cells = new java.util.HashMap<String, Integer>();
+			java.util.List<Place.NearestRequest> distinct = new java.util.ArrayList<Place.NearestRequest>();
+			int[] cellOf = new int[requests.size()];
+			for (int i = 0; i < requests.size(); i++) {
+				Place.NearestRequest request = requests.get(i);
+				String key = request.location != null ? request.cellKey(cellSize) : "#" + i;
+				Integer cell = cells.get(key);
+				if (cell == null) {
+					cell = distinct.size();
+					cells.put(key, cell);
+					distinct.add(request);
+				}
+				cellOf[i] = cell;
+			}
+
+			WSBatch.Collector<Place.NearestResponse> collector = new WSBatch.Collector<Place.NearestResponse>();
+			WSBatch.run(distinct.iterator(), concurrency, false, new WSBatch.Runner<Place.NearestRequest, Place.NearestResponse>() {
+				public void call(Place.NearestRequest request, WSCallback<Place.NearestResponse> callback) throws Exception {
+					nearest(appKey, request, callback);
+				}
+			}, collector);
+
+			java.util.List<WSBatch.Result<Place.NearestResponse>> results = new java.util.ArrayList<WSBatch.Result<Place.NearestResponse>>(requests.size());
+			for (int i = 0; i < cellOf.length; i++) {
+				WSBatch.Result<Place.NearestResponse> result = collector.results.get(cellOf[i]);
+				results.add(new WSBatch.Result<Place.NearestResponse>(i, result.response, result.errorMessage));
+			}
+			return results;
+		}
+
+		/**
+		 * Get address suggests from an autocomplete string.
+		 * If a callback object is provided, then the method will be executed asynchronously. If callback is null, then the method will be executed synchronously.
+		 * @param request
+		 * @param callback
+		 * @return
+		 * @throws Exception
+		 */
+		public Place.AutocompleteResponse autocomplete(Place.AutocompleteRequest request, final WSCallback<Place.AutocompleteResponse> callback) throws Exception {
 			return autocomplete(appKey, request, callback);
 		}
 
@@ -259,26 +1064,70 @@ public class WSClient {
 		 * @throws Exception
 		 */
 		public Place.AutocompleteResponse autocomplete(String appKey, Place.AutocompleteRequest request, final WSCallback<Place.AutocompleteResponse> callback) throws Exception {
+			return autocomplete(appKey, request, callback, 0);
+		}
 
-			String jsonObject = jsonify(request);
+		/**
+		 * Get address suggests from an autocomplete string.
+		 * If a callback object is provided, then the method will be executed asynchronously. If callback is null, then the method will be executed synchronously.
+		 * @param appKey
+		 * @param request
+		 * @param callback
+		 * @param timeout the timeout of the call in milliseconds, or 0 for the default timeout of the endpoint. See WSClient.setDefaultTimeout().
+		 * @return
+		 * @throws Exception
+		 */
+		public Place.AutocompleteResponse autocomplete(String appKey, Place.AutocompleteRequest request, final WSCallback<Place.AutocompleteResponse> callback, long timeout) throws Exception {
+			return call(PLACE_AUTOCOMPLETE, appKey, callback != null ? request.copy() : request, Place.AutocompleteResponse.class, callback, timeout);
+		}
 
-			com.squareup.okhttp.Request okReq = new com.squareup.okhttp.Request.Builder()
-					.url(webServiceUrl + "/place/autocomplete")
-					.post(RequestBody.create(JSON_TYPE, jsonObject))
-					.addHeader("Content-Type", "application/json; charset=utf-8")
-					.addHeader("appKey", appKey)
-					.addHeader("Referer", appReferer)
-					.build();
+		/**
+		 * Get address suggests from an autocomplete string, asynchronously.
+		 * @param request
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Place.AutocompleteResponse> autocompleteAsync(Place.AutocompleteRequest request) {
+			return autocompleteAsync(appKey, request);
+		}
 
-			if (callback == null) {
-				String content = execute(okReq);
-				return decodeContent(content, Place.AutocompleteResponse.class);
+		/**
+		 * Get address suggests from an autocomplete string, asynchronously.
+		 * @param appKey
+		 * @param request
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Place.AutocompleteResponse> autocompleteAsync(String appKey, Place.AutocompleteRequest request) {
+			return autocompleteAsync(appKey, request, 0);
+		}
 
-			} else {
-				DownloadTask<Place.AutocompleteResponse> task = new DownloadTask<Place.AutocompleteResponse>(client, DownloadTask.PLACE_AUTOCOMPLETE, okReq, callback);
-				executor.submit(task);
-				return null;
-			}
+		/**
+		 * Get address suggests from an autocomplete string, asynchronously.
+		 * @param appKey
+		 * @param request
+		 * @param timeout the timeout of the call in milliseconds, or 0 for the default timeout of the endpoint. See WSClient.setDefaultTimeout().
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Place.AutocompleteResponse> autocompleteAsync(String appKey, Place.AutocompleteRequest request, long timeout) {
+			return submit(PLACE_AUTOCOMPLETE, appKey, request.copy(), Place.AutocompleteResponse.class, timeout);
+		}
+
+		/**
+		 * Start an autocomplete session, for suggesting places while the user is typing. See AutocompleteSession.
+		 * @param callback receives the responses of the session, newest request only
+		 * @return
+		 */
+		public AutocompleteSession autocompleteSession(WSCallback<Place.AutocompleteResponse> callback) {
+			return autocompleteSession(appKey, callback);
+		}
+
+		/**
+		 * Start an autocomplete session, for suggesting places while the user is typing. See AutocompleteSession.
+		 * @param appKey
+		 * @param callback receives the responses of the session, newest request only
+		 * @return
+		 */
+		public AutocompleteSession autocompleteSession(String appKey, WSCallback<Place.AutocompleteResponse> callback) {
+			return new AutocompleteSession(WSClient.this, appKey, callback);
 		}
 
 	}
@@ -311,26 +1160,78 @@ public class WSClient {
 		 * @throws Exception
 		 */
 		public Route.Response directions(String appKey, Route.Request request, final WSCallback<Route.Response> callback) throws Exception {
+			return directions(appKey, request, callback, 0);
+		}
+
+		/**
+		 * Get directions between 2 WGS84 coordinates.
+		 * If a callback object is provided, then the method will be executed asynchronously. If callback is null, then the method will be executed synchronously.
+		 * @param appKey
+		 * @param request
+		 * @param callback
+		 * @param timeout the timeout of the call in milliseconds, or 0 for the default timeout of the endpoint. See WSClient.setDefaultTimeout().
+		 * @return
+		 * @throws Exception
+		 */
+		public Route.Response directions(String appKey, Route.Request request, final WSCallback<Route.Response> callback, long timeout) throws Exception {
+			return call(ROUTE_DIRECTIONS, appKey, callback != null ? request.copy() : request, Route.Response.class, callback, timeout);
+		}
+
+		/**
+		 * Get directions between 2 WGS84 coordinates, asynchronously.
+		 * @param request
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Route.Response> directionsAsync(Route.Request request) {
+			return directionsAsync(appKey, request);
+		}
 
-			String jsonObject = jsonify(request);
+		/**
+		 * Get directions between 2 WGS84 coordinates, asynchronously.
+		 * @param appKey
+		 * @param request
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Route.Response> directionsAsync(String appKey, Route.Request request) {
+			return directionsAsync(appKey, request, 0);
+		}
 
-			com.squareup.okhttp.Request okReq = new com.squareup.okhttp.Request.Builder()
-					.url(webServiceUrl + "/route/directions")
-					.post(RequestBody.create(JSON_TYPE, jsonObject))
-					.addHeader("Content-Type", "application/json; charset=utf-8")
-					.addHeader("appKey", appKey)
-					.addHeader("Referer", appReferer)
-					.build();
+		/**
+		 * Get directions between 2 WGS84 coordinates, asynchronously.
+		 * @param appKey
+		 * @param request
+		 * @param timeout the timeout of the call in milliseconds, or 0 for the default timeout of the endpoint. See WSClient.setDefaultTimeout().
+		 * @return the future response, canceling the call when canceled
+		 */
+		public WSFuture<Route.Response> directionsAsync(String appKey, Route.Request request, long timeout) {
+			return submit(ROUTE_DIRECTIONS, appKey, request.copy(), Route.Response.class, timeout);
+		}
 
-			if (callback == null) {
-				String content = execute(okReq);
-				return decodeContent(content, Route.Response.class);
+		/**
+		 * Compute the route lengths and times between N origins and M destinations, with WSBatch.DEFAULT_CONCURRENCY concurrent calls. <br>
+		 * The method blocks until every pair is done. Failed pairs are Float.NaN in the matrix.
+		 * @param origins
+		 * @param destinations
+		 * @param template the request giving the transport mode and distance unit
+		 * @return
+		 * @throws InterruptedException
+		 */
+		public RouteMatrix matrix(java.util.List<LatLng> origins, java.util.List<LatLng> destinations, Route.Request template) throws InterruptedException {
+			RouteMatrix matrix = new RouteMatrix(origins, destinations, template);
+			matrix(appKey, matrix, WSBatch.DEFAULT_CONCURRENCY);
+			return matrix;
+		}
 
-			} else {
-				DownloadTask<Route.Response> task = new DownloadTask<Route.Response>(client, DownloadTask.ROUTE_DIRECTIONS, okReq, callback);
-				executor.submit(task);
-				return null;
-			}
+		/**
+		 * Compute a route matrix. The method blocks until every pair is done, or until the matrix is canceled from another thread:
+		 * pairs already computed are kept, the others are Float.NaN.
+		 * @param appKey
+		 * @param matrix
+		 * @param concurrency the maximum number of concurrent calls
+		 * @throws InterruptedException
+		 */
+		public void matrix(String appKey, RouteMatrix matrix, int concurrency) throws InterruptedException {
+			matrix.run(WSClient.this, appKey, concurrency);
 		}
 	}
 
@@ -348,15 +1249,167 @@ public class WSClient {
 		MixinBoundingBox(@JsonProperty("north") double north, @JsonProperty("east") double east, @JsonProperty("south") double south, @JsonProperty("west") double west) { }
 	}
 
+	private static abstract class MixinRouteResponse {
+		@JsonDeserialize(using = PositionsDeserializer.class) java.util.List<LatLng> positions;
+		@JsonDeserialize(using = LevelsDeserializer.class) java.util.List<Integer> levels;
+	}
+
+	/**
+	 * Reads route positions straight from the parser, into a Route.Polyline when packed geometry is enabled.
+	 */
+	private static class PositionsDeserializer extends JsonDeserializer<java.util.List<LatLng>> {
+
+		@Override
+		public java.util.List<LatLng> deserialize(JsonParser parser, DeserializationContext ctxt) throws IOException {
+			if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+				throw ctxt.mappingException(java.util.List.class);
+			}
+			boolean packed = Boolean.TRUE.equals(ctxt.getAttribute(JSON.PACKED_GEOMETRY));
+			double[] coordinates = packed ? new double[256] : null;
+			java.util.List<LatLng> positions = packed ? null : new java.util.ArrayList<LatLng>();
+			int n = 0;
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+					throw ctxt.mappingException(LatLng.class);
+				}
+				double lat = 0;
+				double lng = 0;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					parser.nextToken();
+					if ("lat".equals(name)) {
+						lat = parser.getValueAsDouble();
+					} else if ("lng".equals(name)) {
+						lng = parser.getValueAsDouble();
+					} else {
+						parser.skipChildren();
+					}
+				}
+				if (packed) {
+					if (n + 2 > coordinates.length) {
+						coordinates = java.util.Arrays.copyOf(coordinates, coordinates.length * 2);
+					}
+					coordinates[n++] = lat;
+					coordinates[n++] = lng;
+				} else {
+					positions.add(new LatLng(lat, lng));
+				}
+			}
+			return packed ? new Route.Polyline(java.util.Arrays.copyOf(coordinates, n)) : positions;
+		}
+	}
+
+	/**
+	 * Reads route levels straight from the parser, into a Route.Levels when packed geometry is enabled.
+	 */
+	private static class LevelsDeserializer extends JsonDeserializer<java.util.List<Integer>> {
+
+		@Override
+		public java.util.List<Integer> deserialize(JsonParser parser, DeserializationContext ctxt) throws IOException {
+			if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+				throw ctxt.mappingException(java.util.List.class);
+			}
+			boolean packed = Boolean.TRUE.equals(ctxt.getAttribute(JSON.PACKED_GEOMETRY));
+			int[] values = packed ? new int[128] : null;
+			java.util.List<Integer> levels = packed ? null : new java.util.ArrayList<Integer>();
+			int n = 0;
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				int level = parser.getValueAsInt();
+				if (packed) {
+					if (n == values.length) {
+						values = java.util.Arrays.copyOf(values, values.length * 2);
+					}
+					values[n++] = level;
+				} else {
+					levels.add(level);
+				}
+			}
+			return packed ? new Route.Levels(java.util.Arrays.copyOf(values, n)) : levels;
+		}
+	}
+
 	/**
 	 * Utility class for serializing/deserializing JSON<->Class
 	 */
 	public static class JSON {
 		public static ObjectMapper mapper = new ObjectMapper();
 
+		/** Writer for requests, shared by all calls **/
+		private static final ObjectWriter writer;
+		/** Readers for the data part of WSResponse<T>, by T class **/
+		private static final ConcurrentHashMap<Class<?>, ObjectReader> dataReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+		/** The same readers, decoding route geometry into Route.Polyline and Route.Levels **/
+		private static final ConcurrentHashMap<Class<?>, ObjectReader> packedDataReaders = new ConcurrentHashMap<Class<?>, ObjectReader>();
+		/** The reader attribute set to Boolean.TRUE by the packed readers **/
+		static final String PACKED_GEOMETRY = "co.oym.geokitandroid.packedGeometry";
+
 		static {
 			mapper.addMixIn(LatLng.class, MixinLatLng.class);
 			mapper.addMixIn(BoundingBox.class, MixinBoundingBox.class);
+			mapper.addMixIn(Route.Response.class, MixinRouteResponse.class);
+
+			writer = mapper.writer();
+			register(Place.SearchResponse.class);
+			register(Place.NearestResponse.class);
+			register(Place.AutocompleteResponse.class);
+			register(Route.Response.class);
+			register(String.class);
+		}
+
+		/**
+		 * Register the readers for a new Web Service response class. <br>
+		 * Readers are built from the mapper configuration at registration time: mapper settings changed afterward are not applied to them.
+		 * @param outputClass
+		 */
+		public static void register(Class<?> outputClass) {
+			ObjectReader reader = mapper.reader(outputClass);
+			packedDataReaders.put(outputClass, reader.withAttribute(PACKED_GEOMETRY, Boolean.TRUE));
+			dataReaders.put(outputClass, reader);
+		}
+
+		/**
+		 * @param outputClass
+		 * @return the reader for outputClass, registered on first use if needed
+		 */
+		public static ObjectReader dataReader(Class<?> outputClass) {
+			return dataReader(outputClass, false);
+		}
+
+		/**
+		 * @param outputClass
+		 * @param packedGeometry true to decode route geometry into Route.Polyline and Route.Levels
+		 * @return the reader for outputClass, registered on first use if needed
+		 */
+		public static ObjectReader dataReader(Class<?> outputClass, boolean packedGeometry) {
+			ConcurrentHashMap<Class<?>, ObjectReader> readers = packedGeometry ? packedDataReaders : dataReaders;
+			ObjectReader reader = readers.get(outputClass);
+			if (reader == null) {
+				register(outputClass);
+				reader = readers.get(outputClass);
+			}
+			return reader;
+		}
+
+		/**
+		 * Builds the serializers and deserializers of every Web Service, by writing an empty request and reading an empty response of each.
+		 */
+		static void prime() {
+			try {
+				writer.writeValueAsBytes(new Place.SearchRequest());
+				writer.writeValueAsBytes(new Place.NearestRequest());
+				writer.writeValueAsBytes(new Place.AutocompleteRequest());
+				writer.writeValueAsBytes(new Route.Request());
+
+				String empty = "{\"statusCode\":\"" + WSResponse.OK + "\",\"data\":{}}";
+				decodeContent(empty, Place.SearchResponse.class);
+				decodeContent(empty, Place.NearestResponse.class);
+				decodeContent(empty, Place.AutocompleteResponse.class);
+				decodeContent(empty, Route.Response.class);
+				decodeContent(empty, Route.Summary.class);
+
+			} catch (Exception ex) {
+				// the first calls will build them
+			}
 		}
 
 		public static String toString(Object obj) {
@@ -369,70 +1422,675 @@ public class WSClient {
 		}
 	}
 	
-	private static class DownloadTask<T> implements Runnable {
+	/**
+	 * A request body serializing its object with the shared writer into a buffer, in UTF-8, on the thread sending the request. <br>
+	 * The object is serialized once, when the transport asks the length of the body, so it is sent with a Content-Length header. The buffer
+	 * is kept for writing the body again if the transport retries the request on a new connection.
+	 */
+	private static class JsonBody extends RequestBody {
+
+		private final Object value;
+		private final WSEventListener events;
+		private final long callId;
+		/** The serialized object, null until serialized, guarded by this **/
+		private Buffer buffer;
+		/** The number of bytes written, -1 until written **/
+		volatile long written = -1;
+
+		public JsonBody(Object value, WSEventListener events, long callId) {
+			this.value = value;
+			this.events = events;
+			this.callId = callId;
+		}
+
+		@Override
+		public MediaType contentType() {
+			return JSON_TYPE;
+		}
+
+		@Override
+		public long contentLength() throws IOException {
+			return buffer().size();
+		}
 
-		public static final int PLACE_SEARCH = 1;
-		public static final int PLACE_NEAREST = 2;
-		public static final int ROUTE_DIRECTIONS = 3;
-		public static final int PLACE_AUTOCOMPLETE = 4;
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException {
+			Buffer b = buffer();
+			// the segments are shared, not copied, and the buffer is kept whole
+			b.copyTo(sink.buffer(), 0, b.size());
+			sink.emit();
+		}
 
-		private final OkHttpClient client; 
-		private final int type;
-		private final Request req;
+		private synchronized Buffer buffer() throws IOException {
+			if (buffer != null) {
+				return buffer;
+			}
+			if (events != null) {
+				events.serializeStart(callId, System.nanoTime());
+			}
+			Buffer b = new Buffer();
+			JsonGenerator generator = JSON.mapper.getFactory().createGenerator(b.outputStream(), JsonEncoding.UTF8);
+			try {
+				JSON.writer.writeValue(generator, value);
+			} finally {
+				generator.close();
+			}
+			buffer = b;
+			written = b.size();
+			if (events != null) {
+				events.serializeEnd(callId, System.nanoTime(), written);
+			}
+			return b;
+		}
+	}
+
+	/**
+	 * An asynchronous call. Only used internally.
+	 */
+	class DownloadTask<T> implements WSDispatcher.AsyncCall, Callback {
+
+		private final OkHttpClient client;
+		private final WSDispatcher dispatcher;
+		private final WSRetryPolicy retryPolicy;
+		private final WSHedgingPolicy hedgingPolicy;
+		private final boolean packedGeometry;
+		private final WSCircuitBreaker breaker;
+		private final WSMetrics metrics;
+		private final WSEventListener events;
+		private final long callId;
+		private final String endpoint;
+		private final String appKey;
+		private final Object request;
+		private final Class<T> outputClass;
 		private final WSCallback<T> listener;
-		
-		public DownloadTask(OkHttpClient client, int type, Request req, WSCallback<T> listener) {
-			this.client = client;
-			this.type = type;
-			this.req = req;
+		/** The deadline in System.nanoTime() time, or 0 if none **/
+		private final long deadline;
+
+		/** The coalescing key and serialized body, when coalescing is enabled **/
+		private String key;
+		private byte[] payload;
+		/** The callers attached to this call while in flight **/
+		private final java.util.List<WSCallback<T>> followers = new java.util.ArrayList<WSCallback<T>>();
+		/** The call this call is attached to, if any **/
+		private DownloadTask<T> leader;
+		/** Set once the listeners have been answered, guarded by inFlight **/
+		private boolean completed;
+		/** The timer expiring this call at its deadline, canceled once answered, guarded by inFlight **/
+		private java.util.concurrent.ScheduledFuture<?> expiry;
+		/** The timer sending the hedge of this call, canceled once answered, guarded by inFlight **/
+		private java.util.concurrent.ScheduledFuture<?> hedgeTimer;
+		/** The number of retries done **/
+		private int retry;
+		/** The number of HTTP calls in flight, the call and its hedge, guarded by inFlight **/
+		private int outstanding;
+		/** The time the call was sent, in System.nanoTime() time **/
+		private long sentAt;
+		/** Set once the outcome of the current attempt is given to the circuit breaker, guarded by inFlight **/
+		private boolean recorded = true;
+		private volatile boolean canceled;
+		private volatile com.squareup.okhttp.Call call;
+		private volatile com.squareup.okhttp.Call hedge;
+
+		public DownloadTask(String endpoint, String appKey, Object request, Class<T> outputClass, WSCallback<T> listener, long deadline) {
+			this.client = WSClient.this.client;
+			this.dispatcher = WSClient.this.dispatcher;
+			this.retryPolicy = WSClient.this.retryPolicy;
+			this.hedgingPolicy = WSClient.this.hedgingPolicy;
+			this.packedGeometry = WSClient.this.packedGeometry;
+			this.breaker = WSClient.this.circuitBreaker;
+			this.metrics = WSClient.this.metrics;
+			this.events = WSClient.this.eventListener;
+			this.callId = callIds.incrementAndGet();
+			this.endpoint = endpoint;
+			this.appKey = appKey;
+			this.request = request;
+			this.outputClass = outputClass;
 			this.listener = listener;
+			this.deadline = deadline;
 		}
 
-		public void run() {
-			client.newCall(req).enqueue(new Callback() {
+		public String endpoint() {
+			return endpoint;
+		}
 
-				@SuppressWarnings("unchecked")
-				public void onResponse(Response response) throws IOException {
-					String content = null;
-					try {
-						if (!response.isSuccessful()) {
-							throw new IOException("Unexpected code " + response);
+		public void rejected(java.util.concurrent.RejectedExecutionException ex) {
+			fail(new WSException(WSException.NETWORK_ERROR, "network error: call rejected"));
+		}
+
+		public void enqueue() {
+			if (coalescing && key == null) {
+				// the coalescing key needs the serialized request: build it on a transport thread, not on the calling thread
+				try {
+					client.getDispatcher().getExecutorService().execute(new Runnable() {
+						public void run() {
+							send();
 						}
+					});
+				} catch (java.util.concurrent.RejectedExecutionException ex) {
+					dispatcher.finished(this);
+					fail(new WSException(WSException.NETWORK_ERROR, "network error: client shut down"));
+				}
+				return;
+			}
+			send();
+		}
+
+		/**
+		 * Hands the call over to the transport, unless attached to an identical call in flight.
+		 */
+		private void send() {
+			if (isAbandoned()) {
+				dispatcher.finished(this);
+				return;
+			}
+			if (join() || !acquire()) {
+				return;
+			}
+			// without coalescing, the body is serialized by the transport thread
+			com.squareup.okhttp.Call c = newCall(newRequest());
+			if (c == null) {
+				return;
+			}
+			call = c;
+			started();
+			c.enqueue(this);
+			if (canceled) {
+				c.cancel();
+			}
+			scheduleHedge();
+		}
+
+		public void execute() {
+			if (isAbandoned()) {
+				dispatcher.finished(this);
+				return;
+			}
+			if (join() || !acquire()) {
+				return;
+			}
+			Request req = newRequest();
+			com.squareup.okhttp.Call c = newCall(req);
+			if (c == null) {
+				return;
+			}
+			call = c;
+			started();
+			if (canceled) {
+				c.cancel();
+			}
+			scheduleHedge();
+			Response response;
+			try {
+				response = c.execute();
+			} catch (IOException e) {
+				onFailure(req, e);
+				return;
+			}
+			onResponse(response);
+		}
 
-						content = response.body().string();
+		/**
+		 * @return the HTTP call, with timeouts bounded by the remaining budget, or null if the deadline is over: this call is then finished and failed
+		 */
+		private com.squareup.okhttp.Call newCall(Request req) {
+			try {
+				return clientFor(client, deadline).newCall(req);
+			} catch (WSException ex) {
+				if (breaker != null) {
+					breaker.release(endpoint);
+				}
+				dispatcher.finished(this);
+				failLater(ex);
+				return null;
+			}
+		}
 
-						if (type == PLACE_SEARCH) {
-							listener.onResponse((T) WSClient.decodeContent(content, Place.SearchResponse.class));
+		/**
+		 * Asks the circuit breaker the permission to send the call.
+		 * @return false if the circuit is open: this call is then finished and failed
+		 */
+		private boolean acquire() {
+			if (breaker == null || breaker.tryAcquire(endpoint)) {
+				return true;
+			}
+			dispatcher.finished(this);
+			failLater(new WSException(WSException.CIRCUIT_OPEN, "circuit open: " + endpoint));
+			return false;
+		}
 
-						} else if (type == PLACE_NEAREST) {
-							listener.onResponse((T) WSClient.decodeContent(content, Place.NearestResponse.class));
+		/**
+		 * Fails this call on a transport thread, as any other failure, not on the thread starting it: possibly the calling thread.
+		 */
+		private void failLater(final WSException error) {
+			try {
+				client.getDispatcher().getExecutorService().execute(new Runnable() {
+					public void run() {
+						fail(error);
+					}
+				});
+			} catch (java.util.concurrent.RejectedExecutionException ex) {
+				// the client is shut down
+				fail(error);
+			}
+		}
 
-						} else if (type == PLACE_AUTOCOMPLETE) {
-							listener.onResponse((T) WSClient.decodeContent(content, Place.AutocompleteResponse.class));
+		/**
+		 * Gives the outcome of the current attempt to the circuit breaker, once.
+		 * @param failed
+		 * @param canceled true if the attempt has no outcome
+		 */
+		private void record(boolean failed, boolean canceled) {
+			if (breaker == null) {
+				return;
+			}
+			synchronized (inFlight) {
+				if (recorded) {
+					return;
+				}
+				recorded = true;
+			}
+			if (canceled) {
+				breaker.release(endpoint);
+			} else {
+				breaker.onResult(endpoint, failed, System.nanoTime() - sentAt);
+			}
+		}
 
-						} else if (type == ROUTE_DIRECTIONS) {
-							listener.onResponse((T) WSClient.decodeContent(content, Route.Response.class));
+		private void started() {
+			synchronized (inFlight) {
+				outstanding++;
+				recorded = false;
+			}
+			sentAt = System.nanoTime();
+			if (events != null) {
+				events.networkStart(callId, endpoint, sentAt);
+			}
+		}
 
-						}
+		/**
+		 * @return true if no other HTTP call of this call is in flight: its dispatcher slot can then be released
+		 */
+		private boolean ended() {
+			synchronized (inFlight) {
+				return --outstanding == 0;
+			}
+		}
 
-					} catch (Exception ex) {
-						// parsing error or real error
-						String errorMessage = "oym response parsing error";
-						try {
-							errorMessage = WSClient.decodeContent(content, String.class);
+		private void scheduleHedge() {
+			if (hedgingPolicy == null || retry > 0) {
+				return;
+			}
+			long delay = hedgingPolicy.onCall(endpoint);
+			if (delay < 0) {
+				return;
+			}
+			java.util.concurrent.ScheduledFuture<?> timer = scheduler().schedule(new Runnable() {
+				public void run() {
+					hedge();
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+			synchronized (inFlight) {
+				if (!completed) {
+					hedgeTimer = timer;
+					return;
+				}
+			}
+			WSClient.cancel(timer);
+		}
 
-						} catch (Exception ex2) {
-						}
-						listener.onFailure(errorMessage);
-					}
+		/**
+		 * Sends a duplicate of the HTTP call still in flight, if the hedging budget allows it. The first response wins.
+		 */
+		private void hedge() {
+			final com.squareup.okhttp.Call c;
+			try {
+				c = clientFor(client, deadline).newCall(newRequest());
+			} catch (WSException ex) {
+				return;
+			}
+			synchronized (inFlight) {
+				// the slot is held while the call is in flight
+				if (completed || outstanding == 0 || (canceled && followers.isEmpty()) || !hedgingPolicy.acquire(endpoint)) {
+					return;
+				}
+				outstanding++;
+			}
+			hedge = c;
+			final long hedgedAt = System.nanoTime();
+			if (events != null) {
+				events.networkStart(callId, endpoint, hedgedAt);
+			}
+			c.enqueue(new Callback() {
+				public void onResponse(Response response) throws IOException {
+					DownloadTask.this.onResponse(response, hedgedAt);
 				}
 
 				public void onFailure(Request request, IOException e) {
-					e.printStackTrace();
-					listener.onFailure("network error: " + e.getMessage());
+					DownloadTask.this.onFailure(request, e);
 				}
+			});
+			if (isAbandoned()) {
+				c.cancel();
+			}
+		}
 
-			});		
+		private void cancelCalls() {
+			com.squareup.okhttp.Call c = call;
+			if (c != null) {
+				c.cancel();
+			}
+			c = hedge;
+			if (c != null) {
+				c.cancel();
+			}
+		}
+
+		private Request newRequest() {
+			if (payload != null) {
+				return WSClient.this.newRequest(endpoint, appKey, RequestBody.create(JSON_TYPE, payload));
+			}
+			return WSClient.this.newRequest(endpoint, appKey, new JsonBody(request, events, callId));
+		}
+
+		/**
+		 * Attach this call to an identical call in flight, if coalescing is enabled.
+		 * @return true if attached: this call is then finished and will be answered by the other one
+		 */
+		@SuppressWarnings("unchecked")
+		private boolean join() {
+			if (!coalescing || key != null) {
+				return false;
+			}
+			try {
+				if (events != null) {
+					events.serializeStart(callId, System.nanoTime());
+				}
+				payload = JSON.writer.writeValueAsBytes(request);
+				if (events != null) {
+					events.serializeEnd(callId, System.nanoTime(), payload.length);
+				}
+			} catch (IOException ex) {
+				dispatcher.finished(this);
+				fail(new WSException(WSException.PARSING_ERROR, "oym request serialization error"));
+				return true;
+			}
+			// calls decoded into different classes can not share their response
+			key = endpoint + '\n' + appKey + '\n' + outputClass.getName() + '\n' + new String(payload, UTF_8);
+			synchronized (inFlight) {
+				// unless expired while serializing
+				if (!completed) {
+					DownloadTask<T> leader = (DownloadTask<T>) inFlight.get(key);
+					if (leader == null) {
+						inFlight.put(key, this);
+						return false;
+					}
+					leader.followers.add(listener);
+					this.leader = leader;
+				}
+			}
+			dispatcher.finished(this);
+			return true;
+		}
+
+		/**
+		 * Cancel this call: its listener will not be called. <br>
+		 * The HTTP call is canceled too, unless other callers are attached to it.
+		 */
+		void cancel() {
+			synchronized (inFlight) {
+				canceled = true;
+				if (leader != null) {
+					leader.followers.remove(listener);
+				}
+				if (!followers.isEmpty()) {
+					return;
+				}
+				if (key != null && inFlight.get(key) == this) {
+					inFlight.remove(key);
+				}
+			}
+			cancelCalls();
+		}
+
+		boolean isCanceled() {
+			return canceled;
+		}
+
+		/**
+		 * @return true if nobody waits for this call anymore
+		 */
+		private boolean isAbandoned() {
+			synchronized (inFlight) {
+				return completed || (canceled && followers.isEmpty());
+			}
+		}
+
+		/**
+		 * Schedules another attempt after a transient failure, if the retry policy allows it.
+		 * @param transientFailure
+		 * @return true if scheduled: the call is then started again through the dispatcher after the backoff
+		 */
+		private boolean retry(boolean transientFailure) {
+			if (!transientFailure || isAbandoned()) {
+				return false;
+			}
+			long delay = retryPolicy.delay(endpoint, retry, deadline);
+			if (delay < 0) {
+				return false;
+			}
+			retry++;
+			scheduler().schedule(new Runnable() {
+				public void run() {
+					try {
+						dispatcher.enqueue(DownloadTask.this);
+					} catch (java.util.concurrent.RejectedExecutionException ex) {
+						rejected(ex);
+					}
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+			return true;
+		}
+
+		/**
+		 * Set the timer expiring this call, or cancel it if the call is already answered.
+		 */
+		void setExpiry(java.util.concurrent.ScheduledFuture<?> expiry) {
+			synchronized (inFlight) {
+				if (!completed) {
+					this.expiry = expiry;
+					return;
+				}
+			}
+			WSClient.cancel(expiry);
+		}
+
+		/**
+		 * Fail this call with WSException.TIMEOUT and cancel its HTTP call, unless already answered.
+		 * The listeners attached to it time out too.
+		 */
+		void expire() {
+			if (fail(new WSException(WSException.TIMEOUT, "timeout"))) {
+				record(true, false);
+				canceled = true;
+				cancelCalls();
+			}
+		}
+
+		/**
+		 * @return this call's listener, unless canceled, and the listeners attached to it, or null if already completed. No listener can be attached afterward.
+		 */
+		private java.util.List<WSCallback<T>> complete() {
+			java.util.List<WSCallback<T>> listeners = new java.util.ArrayList<WSCallback<T>>(1);
+			java.util.concurrent.ScheduledFuture<?> timer;
+			java.util.concurrent.ScheduledFuture<?> hedging;
+			synchronized (inFlight) {
+				if (completed) {
+					return null;
+				}
+				completed = true;
+				timer = expiry;
+				expiry = null;
+				hedging = hedgeTimer;
+				hedgeTimer = null;
+				// an attached call is answered by its leader, unless detached before
+				if (leader == null || (!leader.completed && leader.followers.remove(listener))) {
+					if (!canceled) {
+						listeners.add(listener);
+					}
+					if (key != null && inFlight.get(key) == this) {
+						inFlight.remove(key);
+					}
+					listeners.addAll(followers);
+				}
+			}
+			WSClient.cancel(timer);
+			WSClient.cancel(hedging);
+			return listeners;
+		}
+
+		public void onResponse(Response response) {
+			onResponse(response, sentAt);
+		}
+
+		private void onResponse(Response response, long sentAt) {
+			if (events != null) {
+				events.headersReceived(callId, System.nanoTime(), response.code());
+			}
+			ResponseBody body = response.body();
+			T data;
+			try {
+				if (!response.isSuccessful()) {
+					closeQuietly(body);
+					failed(retryPolicy != null && retryPolicy.isTransient(response.code()), new WSException(response.code()));
+					return;
+				}
+
+				data = decode(metrics, events, endpoint, callId, response, sentAt, outputClass, packedGeometry);
+
+			} catch (Exception ex) {
+				closeQuietly(body);
+				// parsing error or real error
+				if (ex instanceof WSException) {
+					WSException wsEx = (WSException) ex;
+					failed(retryPolicy != null && retryPolicy.isTransient(wsEx.code),
+							new WSException(wsEx.code, wsEx.message != null ? wsEx.message : "oym response parsing error"));
+				} else if (ex instanceof IOException && !(ex instanceof JsonProcessingException) && isExpired()) {
+					// the body could not be read before the deadline
+					failed(false, new WSException(WSException.TIMEOUT, "timeout"));
+				} else {
+					failed(false, new WSException(WSException.PARSING_ERROR, "oym response parsing error"));
+				}
+				return;
+			}
+			closeQuietly(body);
+			record(false, false);
+			if (hedgingPolicy != null) {
+				hedgingPolicy.record(endpoint, System.nanoTime() - sentAt);
+			}
+			java.util.List<WSCallback<T>> listeners = complete();
+			if (ended()) {
+				dispatcher.finished(this);
+			} else if (listeners != null) {
+				// the first response wins
+				cancelCalls();
+			}
+			if (listeners != null) {
+				if (events != null) {
+					events.callbackDispatch(callId, System.nanoTime());
+				}
+				RuntimeException thrown = null;
+				for (WSCallback<T> l : listeners) {
+					// a failing listener must not deprive the others of their response
+					try {
+						l.onResponse(data);
+					} catch (RuntimeException ex) {
+						if (thrown == null) {
+							thrown = ex;
+						}
+					}
+				}
+				if (thrown != null) {
+					throw thrown;
+				}
+			}
+		}
+
+		public void onFailure(Request request, IOException e) {
+			if (!ended()) {
+				// the other HTTP call may still succeed
+				return;
+			}
+			record(true, canceled);
+			dispatcher.finished(this);
+			if (retry(retryPolicy != null && retryPolicy.isTransient(e))) {
+				return;
+			}
+			if (isExpired()) {
+				// the transport timeout, set to the remaining budget, may fire before the deadline timer
+				fail(new WSException(WSException.TIMEOUT, "timeout"));
+				return;
+			}
+			if (!isAbandoned()) {
+				e.printStackTrace();
+			}
+			fail(new WSException(WSException.NETWORK_ERROR, "network error: " + e.getMessage()));
+		}
+
+		/**
+		 * @return true if the deadline of this call is over
+		 */
+		private boolean isExpired() {
+			return deadline != 0 && System.nanoTime() - deadline >= 0;
+		}
+
+		/**
+		 * Retries or fails this call once no other HTTP call of it is in flight.
+		 */
+		private void failed(boolean transientFailure, WSException error) {
+			if (!ended()) {
+				return;
+			}
+			record(breaker != null && breaker.isFailure(error.code), false);
+			dispatcher.finished(this);
+			if (!retry(transientFailure)) {
+				fail(error);
+			}
+		}
+
+		/**
+		 * Gives an error to the listeners: futures get the WSException, callbacks its message.
+		 * @return false if already completed
+		 */
+		@SuppressWarnings("unchecked")
+		private boolean fail(WSException error) {
+			java.util.List<WSCallback<T>> listeners = complete();
+			if (listeners == null) {
+				return false;
+			}
+			if (events != null) {
+				long time = System.nanoTime();
+				events.callFailed(callId, time, error);
+				events.callbackDispatch(callId, time);
+			}
+			RuntimeException thrown = null;
+			for (WSCallback<T> l : listeners) {
+				try {
+					if (l instanceof WSFuture.Completer) {
+						// keep the error code
+						((WSFuture.Completer<T>) l).future.fail(error);
+					} else {
+						l.onFailure(error.message);
+					}
+				} catch (RuntimeException ex) {
+					if (thrown == null) {
+						thrown = ex;
+					}
+				}
+			}
+			if (thrown != null) {
+				throw thrown;
+			}
+			return true;
 		}
 
 	}
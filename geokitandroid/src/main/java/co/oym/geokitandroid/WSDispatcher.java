@@ -0,0 +1,268 @@
+package co.oym.geokitandroid;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Dispatches asynchronous Web Service calls. <br>
+ * Each endpoint (for example WSClient.PLACE_AUTOCOMPLETE) has its own limit of concurrent calls. Calls above this limit wait in a per-endpoint queue
+ * and are started as soon as a running call of the same endpoint is finished, so a burst on one endpoint never delays the others. <br>
+ * By default calls are enqueued straight onto the OkHttp transport (whose own per-host limit still applies, see OkHttpClient.getDispatcher()).
+ * If an ExecutorService is provided, calls are executed on its threads instead. <br>
+ */
+public class WSDispatcher {
+
+	/** The default maximum number of concurrent calls per endpoint **/
+	public static final int DEFAULT_MAX_REQUESTS_PER_ENDPOINT = 4;
+
+	private final ExecutorService executorService;
+	private int maxRequestsPerEndpoint = DEFAULT_MAX_REQUESTS_PER_ENDPOINT;
+	private final Map<String, Integer> maxRequests = new HashMap<String, Integer>();
+	private final Map<String, Endpoint> endpoints = new HashMap<String, Endpoint>();
+	/** The calls left to start by the loop running on the current thread, or null if none is running **/
+	private final ThreadLocal<Deque<AsyncCall>> draining = new ThreadLocal<Deque<AsyncCall>>();
+
+	/**
+	 * A call managed by the dispatcher.
+	 */
+	interface AsyncCall {
+		/** The endpoint of the call, used for concurrency limits **/
+		String endpoint();
+		/** Hands the call over to the transport without blocking **/
+		void enqueue();
+		/** Executes the call on the current thread **/
+		void execute();
+		/** Fails the call whose execution was rejected, once the dispatcher has released its slot **/
+		void rejected(RejectedExecutionException ex);
+	}
+
+	private static class Endpoint {
+		int running;
+		final Deque<AsyncCall> ready = new ArrayDeque<AsyncCall>();
+	}
+
+	/**
+	 * Creates a dispatcher enqueueing calls straight onto the OkHttp transport.
+	 */
+	public WSDispatcher() {
+		this(null);
+	}
+
+	/**
+	 * Creates a dispatcher executing calls on the given ExecutorService. <br>
+	 * The executor is owned by the caller: it is not shut down by WSClient.shutdown().
+	 * @param executorService
+	 */
+	public WSDispatcher(ExecutorService executorService) {
+		this.executorService = executorService;
+	}
+
+	/**
+	 * @return the ExecutorService provided by the caller, or null if calls are enqueued onto the OkHttp transport
+	 */
+	public ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	/**
+	 * Set the default maximum number of concurrent calls for endpoints without a specific limit.
+	 * @param max
+	 */
+	public void setMaxRequestsPerEndpoint(int max) {
+		if (max < 1) {
+			throw new IllegalArgumentException("max < 1: " + max);
+		}
+		synchronized (this) {
+			this.maxRequestsPerEndpoint = max;
+		}
+		promoteCalls();
+	}
+
+	/**
+	 * Set the maximum number of concurrent calls for one endpoint.
+	 * @param endpoint
+	 * @param max
+	 */
+	public void setMaxRequests(String endpoint, int max) {
+		if (max < 1) {
+			throw new IllegalArgumentException("max < 1: " + max);
+		}
+		synchronized (this) {
+			maxRequests.put(endpoint, max);
+		}
+		promoteCalls();
+	}
+
+	/**
+	 * @param endpoint
+	 * @return the maximum number of concurrent calls for this endpoint
+	 */
+	public synchronized int getMaxRequests(String endpoint) {
+		Integer max = maxRequests.get(endpoint);
+		return max != null ? max : maxRequestsPerEndpoint;
+	}
+
+	/**
+	 * @param endpoint
+	 * @return the number of running calls for this endpoint
+	 */
+	public synchronized int runningCallsCount(String endpoint) {
+		Endpoint e = endpoints.get(endpoint);
+		return e != null ? e.running : 0;
+	}
+
+	/**
+	 * @param endpoint
+	 * @return the number of calls waiting for a free slot for this endpoint
+	 */
+	public synchronized int queuedCallsCount(String endpoint) {
+		Endpoint e = endpoints.get(endpoint);
+		return e != null ? e.ready.size() : 0;
+	}
+
+	void enqueue(AsyncCall call) {
+		synchronized (this) {
+			Endpoint e = endpoint(call.endpoint());
+			if (e.running >= getMaxRequests(call.endpoint())) {
+				e.ready.add(call);
+				return;
+			}
+			e.running++;
+		}
+		try {
+			start(call);
+		} catch (RejectedExecutionException ex) {
+			// executor has been shut down or is saturated: release the slot
+			startQueued(release(call.endpoint()));
+			throw ex;
+		}
+	}
+
+	/**
+	 * Must be called exactly once by each started call when it is done, for releasing its slot.
+	 * @param call
+	 */
+	void finished(AsyncCall call) {
+		RuntimeException thrown = startQueued(release(call.endpoint()));
+		if (thrown != null) {
+			throw thrown;
+		}
+	}
+
+	/**
+	 * Releases a slot of an endpoint.
+	 * @return the next call to start in this slot, or null if none
+	 */
+	private synchronized AsyncCall release(String endpoint) {
+		Endpoint e = endpoint(endpoint);
+		e.running--;
+		AsyncCall next = e.ready.poll();
+		if (next != null) {
+			e.running++;
+		}
+		return next;
+	}
+
+	private void promoteCalls() {
+		Deque<AsyncCall> calls = new ArrayDeque<AsyncCall>();
+		synchronized (this) {
+			for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+				Endpoint e = entry.getValue();
+				int max = getMaxRequests(entry.getKey());
+				while (e.running < max && !e.ready.isEmpty()) {
+					calls.add(e.ready.poll());
+					e.running++;
+				}
+			}
+		}
+		RuntimeException thrown = startQueued(calls);
+		if (thrown != null) {
+			throw thrown;
+		}
+	}
+
+	private Endpoint endpoint(String name) {
+		Endpoint e = endpoints.get(name);
+		if (e == null) {
+			e = new Endpoint();
+			endpoints.put(name, e);
+		}
+		return e;
+	}
+
+	/**
+	 * Starts a call taken from the queue.
+	 * @param call the call, or null
+	 * @return the first exception thrown while failing calls at start, or null
+	 */
+	private RuntimeException startQueued(AsyncCall call) {
+		if (call == null) {
+			return null;
+		}
+		Deque<AsyncCall> calls = new ArrayDeque<AsyncCall>(1);
+		calls.add(call);
+		return startQueued(calls);
+	}
+
+	/**
+	 * Starts calls taken from the queue, in a loop. <br>
+	 * A call failing at start finishes at once: the next call given its slot is added to the loop already running on this thread,
+	 * so draining a queue of such calls does not nest one stack frame per call. If its execution is rejected, it is failed, as no caller
+	 * is left to throw to.
+	 * @param calls
+	 * @return the first exception thrown while failing calls at start, or null
+	 */
+	private RuntimeException startQueued(Deque<AsyncCall> calls) {
+		Deque<AsyncCall> pending = draining.get();
+		if (pending != null) {
+			pending.addAll(calls);
+			return null;
+		}
+		draining.set(calls);
+		RuntimeException thrown = null;
+		try {
+			AsyncCall call;
+			while ((call = calls.poll()) != null) {
+				try {
+					start(call);
+				} catch (RejectedExecutionException ex) {
+					AsyncCall next = release(call.endpoint());
+					if (next != null) {
+						calls.add(next);
+					}
+					try {
+						call.rejected(ex);
+					} catch (RuntimeException e) {
+						if (thrown == null) {
+							thrown = e;
+						}
+					}
+				} catch (RuntimeException ex) {
+					// thrown by a listener of a call failed at start
+					if (thrown == null) {
+						thrown = ex;
+					}
+				}
+			}
+		} finally {
+			draining.remove();
+		}
+		return thrown;
+	}
+
+	private void start(final AsyncCall call) {
+		if (executorService == null) {
+			call.enqueue();
+			return;
+		}
+		executorService.execute(new Runnable() {
+			public void run() {
+				call.execute();
+			}
+		});
+	}
+}
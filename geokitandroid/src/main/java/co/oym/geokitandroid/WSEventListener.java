@@ -0,0 +1,97 @@
+package co.oym.geokitandroid;
+
+/**
+ * A listener of the stages of the Web Service calls, for tracing where their time goes. <br>
+ * Every call has an id, unique for its WSClient, and every event a System.nanoTime() timestamp. A call sends one or more HTTP calls when
+ * it is retried or hedged: each of them fires its own network, headers, body and decode events. <br>
+ * Events are fired on the threads running the calls, so the methods must be fast and thread-safe, and must not throw.
+ * Override the methods of the events to trace, and install the listener with WSClient.setEventListener().
+ */
+public abstract class WSEventListener {
+
+	/**
+	 * An asynchronous call is submitted to the dispatcher.
+	 * @param callId
+	 * @param endpoint
+	 * @param time
+	 */
+	public void callEnqueued(long callId, String endpoint, long time) {
+	}
+
+	/**
+	 * The request starts to be serialized to JSON, on the transport thread unless coalescing is enabled.
+	 * @param callId
+	 * @param time
+	 */
+	public void serializeStart(long callId, long time) {
+	}
+
+	/**
+	 * The request is serialized.
+	 * @param callId
+	 * @param time
+	 * @param bytes the size of the JSON request
+	 */
+	public void serializeEnd(long callId, long time, long bytes) {
+	}
+
+	/**
+	 * An HTTP call is handed over to the transport.
+	 * @param callId
+	 * @param endpoint
+	 * @param time
+	 */
+	public void networkStart(long callId, String endpoint, long time) {
+	}
+
+	/**
+	 * The response headers of an HTTP call are received.
+	 * @param callId
+	 * @param time
+	 * @param httpCode
+	 */
+	public void headersReceived(long callId, long time, int httpCode) {
+	}
+
+	/**
+	 * The response starts to be decoded. The body is read while it is decoded.
+	 * @param callId
+	 * @param time
+	 */
+	public void decodeStart(long callId, long time) {
+	}
+
+	/**
+	 * The response body has been read.
+	 * @param callId
+	 * @param time
+	 * @param bytes the size of the body, after transfer decompression
+	 */
+	public void bodyRead(long callId, long time, long bytes) {
+	}
+
+	/**
+	 * The response is decoded.
+	 * @param callId
+	 * @param time
+	 */
+	public void decodeEnd(long callId, long time) {
+	}
+
+	/**
+	 * An asynchronous call failed, just before its callbacks are called.
+	 * @param callId
+	 * @param time
+	 * @param error
+	 */
+	public void callFailed(long callId, long time, WSException error) {
+	}
+
+	/**
+	 * The callbacks of an asynchronous call are about to be called, with its response or its error.
+	 * @param callId
+	 * @param time
+	 */
+	public void callbackDispatch(long callId, long time) {
+	}
+}
@@ -7,10 +7,23 @@ public class WSException extends Exception {
 
 	private static final long serialVersionUID = -8411541817140551506L;
 
+	/** The error code of a network failure or unexpected HTTP status **/
+	public static final String NETWORK_ERROR = "network";
+	/** The error code of a response that could not be decoded **/
+	public static final String PARSING_ERROR = "parsing";
+	/** The error code of a call that timed out **/
+	public static final String TIMEOUT = "timeout";
+	/** The error code of a canceled call **/
+	public static final String CANCELED = "canceled";
+	/** The error code of a call failed at once because the circuit of its endpoint is open. See WSCircuitBreaker. **/
+	public static final String CIRCUIT_OPEN = "circuit_open";
+
 	/** The error code from the Web Service **/
 	public String code;
 	/** The error message from the Web Service **/
 	public String message;
+	/** The HTTP status of an unsuccessful response, or 0 if none **/
+	public int httpStatus;
 
 	public WSException() {
 	}
@@ -26,4 +39,13 @@ public class WSException extends Exception {
         this.message = message;
     }
 
+	/**
+	 * A NETWORK_ERROR for an unsuccessful HTTP response.
+	 * @param httpStatus
+	 */
+	public WSException(int httpStatus) {
+		this(NETWORK_ERROR, "network error: " + httpStatus);
+		this.httpStatus = httpStatus;
+	}
+
 }
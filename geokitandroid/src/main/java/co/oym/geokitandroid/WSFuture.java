@@ -0,0 +1,337 @@
+package co.oym.geokitandroid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of an asynchronous Web Service call. <br>
+ * Canceling the future cancels the underlying HTTP call. A future can be given a timeout, and chained with map() and then() without
+ * blocking any thread: for example geocode an address, then compute a route to it. <br>
+ * Failures are WSException, whose code is the Web Service status code or one of the WSException error codes. get() throws them wrapped
+ * into an ExecutionException.
+ */
+public class WSFuture<T> implements Future<T> {
+
+	/**
+	 * Transforms the value of a future.
+	 */
+	public interface Function<T, R> {
+		R apply(T value) throws Exception;
+	}
+
+	/**
+	 * Starts the next asynchronous step from the value of a future.
+	 */
+	public interface Continuation<T, R> {
+		WSFuture<R> apply(T value) throws Exception;
+	}
+
+	/**
+	 * The callback completing a future, given to its call: a future can not be completed by its holders.
+	 */
+	static class Completer<T> implements WSCallback<T> {
+		final WSFuture<T> future;
+
+		Completer(WSFuture<T> future) {
+			this.future = future;
+		}
+
+		public void onResponse(T response) {
+			future.succeed(response);
+		}
+
+		public void onFailure(String errorMessage) {
+			future.fail(new WSException(null, errorMessage));
+		}
+	}
+
+	private static final int PENDING = 0;
+	private static final int SUCCEEDED = 1;
+	private static final int FAILED = 2;
+	private static final int CANCELED = 3;
+
+	private int state = PENDING;
+	private T value;
+	private WSException error;
+	private List<WSCallback<? super T>> listeners = new ArrayList<WSCallback<? super T>>(2);
+	/** Cancels the work producing this future **/
+	private volatile Runnable canceler;
+	/** The earliest timeout timer, canceled once completed **/
+	private ScheduledFuture<?> timer;
+
+	WSFuture() {
+	}
+
+	/**
+	 * @param value
+	 * @return a future already succeeded with value
+	 */
+	public static <T> WSFuture<T> succeeded(T value) {
+		WSFuture<T> future = new WSFuture<T>();
+		future.succeed(value);
+		return future;
+	}
+
+	/**
+	 * @param error
+	 * @return a future already failed with error
+	 */
+	public static <T> WSFuture<T> failed(WSException error) {
+		WSFuture<T> future = new WSFuture<T>();
+		future.fail(error);
+		return future;
+	}
+
+	void setCanceler(Runnable canceler) {
+		this.canceler = canceler;
+		if (isCancelled()) {
+			canceler.run();
+		}
+	}
+
+	/**
+	 * @return a callback completing this future, for the call producing it
+	 */
+	WSCallback<T> completer() {
+		return new Completer<T>(this);
+	}
+
+	boolean succeed(T value) {
+		return complete(SUCCEEDED, value, null);
+	}
+
+	boolean fail(WSException error) {
+		return complete(FAILED, null, error);
+	}
+
+	/**
+	 * Cancel this future and the underlying HTTP call.
+	 * @param mayInterruptIfRunning ignored: calls are never bound to a thread
+	 * @return false if already done
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!complete(CANCELED, null, new WSException(WSException.CANCELED, "canceled"))) {
+			return false;
+		}
+		Runnable c = canceler;
+		if (c != null) {
+			c.run();
+		}
+		return true;
+	}
+
+	public synchronized boolean isCancelled() {
+		return state == CANCELED;
+	}
+
+	public synchronized boolean isDone() {
+		return state != PENDING;
+	}
+
+	public synchronized T get() throws InterruptedException, ExecutionException {
+		while (state == PENDING) {
+			wait();
+		}
+		return result();
+	}
+
+	public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		long end = System.nanoTime() + unit.toNanos(timeout);
+		while (state == PENDING) {
+			long remaining = end - System.nanoTime();
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return result();
+	}
+
+	private T result() throws ExecutionException {
+		if (state == SUCCEEDED) {
+			return value;
+		}
+		if (state == CANCELED) {
+			throw new CancellationException();
+		}
+		throw new ExecutionException(error.message, error);
+	}
+
+	/**
+	 * Add a callback called when this future is done: on the calling thread if already done, otherwise on the thread completing it.
+	 * A canceled future calls onFailure with WSException.CANCELED.
+	 * @param callback
+	 * @return this future
+	 */
+	public WSFuture<T> addListener(WSCallback<? super T> callback) {
+		synchronized (this) {
+			if (state == PENDING) {
+				listeners.add(callback);
+				return this;
+			}
+		}
+		deliver(callback);
+		return this;
+	}
+
+	/**
+	 * Fail this future with WSException.TIMEOUT and cancel the underlying HTTP call if it is not done within the timeout.
+	 * @param timeout
+	 * @param unit
+	 * @return this future
+	 */
+	public WSFuture<T> timeout(long timeout, TimeUnit unit) {
+		ScheduledFuture<?> t = WSClient.scheduler().schedule(new Runnable() {
+			public void run() {
+				if (fail(new WSException(WSException.TIMEOUT, "timeout"))) {
+					Runnable c = canceler;
+					if (c != null) {
+						c.run();
+					}
+				}
+			}
+		}, timeout, unit);
+		ScheduledFuture<?> unused = t;
+		synchronized (this) {
+			if (state == PENDING && (timer == null || t.getDelay(TimeUnit.NANOSECONDS) < timer.getDelay(TimeUnit.NANOSECONDS))) {
+				unused = timer;
+				timer = t;
+			}
+		}
+		WSClient.cancel(unused);
+		return this;
+	}
+
+	/**
+	 * @param function
+	 * @return a future of the value of this future transformed by function. Canceling it cancels this future.
+	 */
+	public <R> WSFuture<R> map(final Function<? super T, ? extends R> function) {
+		final WSFuture<R> next = new WSFuture<R>();
+		next.setCanceler(new Runnable() {
+			public void run() {
+				cancel(false);
+			}
+		});
+		addListener(new WSCallback<T>() {
+			public void onResponse(T response) {
+				try {
+					next.succeed(function.apply(response));
+				} catch (Exception ex) {
+					next.fail(asWSException(ex));
+				}
+			}
+
+			public void onFailure(String errorMessage) {
+				failFrom(next, WSFuture.this);
+			}
+		});
+		return next;
+	}
+
+	/**
+	 * @param continuation
+	 * @return a future of the future started by continuation from the value of this future. Canceling it cancels the current step.
+	 */
+	public <R> WSFuture<R> then(final Continuation<? super T, R> continuation) {
+		final WSFuture<R> next = new WSFuture<R>();
+		next.setCanceler(new Runnable() {
+			public void run() {
+				cancel(false);
+			}
+		});
+		addListener(new WSCallback<T>() {
+			public void onResponse(T response) {
+				final WSFuture<R> step;
+				try {
+					step = continuation.apply(response);
+				} catch (Exception ex) {
+					next.fail(asWSException(ex));
+					return;
+				}
+				next.setCanceler(new Runnable() {
+					public void run() {
+						step.cancel(false);
+					}
+				});
+				step.addListener(new WSCallback<R>() {
+					public void onResponse(R response) {
+						next.succeed(response);
+					}
+
+					public void onFailure(String errorMessage) {
+						failFrom(next, step);
+					}
+				});
+			}
+
+			public void onFailure(String errorMessage) {
+				failFrom(next, WSFuture.this);
+			}
+		});
+		return next;
+	}
+
+	/**
+	 * @return the error of this future if failed or canceled, otherwise null
+	 */
+	public synchronized WSException getError() {
+		return error;
+	}
+
+	private boolean complete(int state, T value, WSException error) {
+		List<WSCallback<? super T>> toNotify;
+		ScheduledFuture<?> t;
+		synchronized (this) {
+			if (this.state != PENDING) {
+				return false;
+			}
+			this.state = state;
+			this.value = value;
+			this.error = error;
+			toNotify = listeners;
+			listeners = null;
+			t = timer;
+			timer = null;
+			notifyAll();
+		}
+		WSClient.cancel(t);
+		for (WSCallback<? super T> listener : toNotify) {
+			deliver(listener);
+		}
+		return true;
+	}
+
+	private void deliver(WSCallback<? super T> listener) {
+		if (state == SUCCEEDED) {
+			listener.onResponse(value);
+		} else {
+			listener.onFailure(error.message);
+		}
+	}
+
+	/**
+	 * Fails a chained future like the future it depends on: canceled if that one was canceled.
+	 */
+	private static void failFrom(WSFuture<?> next, WSFuture<?> previous) {
+		if (previous.isCancelled()) {
+			next.cancel(false);
+		} else {
+			next.fail(previous.getError());
+		}
+	}
+
+	private static WSException asWSException(Exception ex) {
+		if (ex instanceof WSException) {
+			return (WSException) ex;
+		}
+		return new WSException(null, ex.getMessage());
+	}
+
+}
@@ -0,0 +1,166 @@
+package co.oym.geokitandroid;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hedging policy, for cutting the tail latency of read-only endpoints. <br>
+ * When an asynchronous call has not answered within a percentile of the latencies observed on its endpoint, a duplicate call is sent: the
+ * first response wins and the other call is canceled. Hedging starts once enough latencies have been observed. <br>
+ * Hedged calls are capped as a ratio of the calls of each endpoint, so a slow Web Service never receives twice its traffic.
+ * Only the place endpoints can be hedged: routes are too expensive to compute twice. <br>
+ * Install it with WSClient.setHedgingPolicy().
+ */
+public class WSHedgingPolicy {
+
+	/** The default percentile of the observed latency after which a call is hedged **/
+	public static final double DEFAULT_PERCENTILE = 0.95;
+	/** The default maximum ratio of hedged calls **/
+	public static final double DEFAULT_MAX_RATIO = 0.05;
+
+	/** The number of latencies kept by endpoint **/
+	private static final int WINDOW = 128;
+	/** The number of latencies observed before hedging **/
+	private static final int MIN_SAMPLES = 20;
+	/** The number of latencies between two updates of the hedging delay **/
+	private static final int UPDATE_INTERVAL = 16;
+
+	private static final Set<String> IDEMPOTENT_ENDPOINTS = new HashSet<String>(Arrays.asList(
+			WSClient.PLACE_SEARCH, WSClient.PLACE_NEAREST, WSClient.PLACE_AUTOCOMPLETE));
+
+	private final double percentile;
+	private final double maxRatio;
+	private final Set<String> endpoints;
+	private final Map<String, Latencies> latencies = new HashMap<String, Latencies>();
+
+	private long hedgeCount;
+
+	private static class Latencies {
+		final long[] samples = new long[WINDOW];
+		int count;
+		int sinceUpdate;
+		/** The hedging delay in nanoseconds, 0 until enough latencies are observed **/
+		long delay;
+		/** The hedges available **/
+		double budget = 1;
+	}
+
+	/**
+	 * Creates a hedging policy for WSClient.PLACE_SEARCH and WSClient.PLACE_AUTOCOMPLETE, with the default settings.
+	 */
+	public WSHedgingPolicy() {
+		this(DEFAULT_PERCENTILE, DEFAULT_MAX_RATIO, WSClient.PLACE_SEARCH, WSClient.PLACE_AUTOCOMPLETE);
+	}
+
+	/**
+	 *
+	 * @param percentile the percentile of the observed latency after which a call is hedged, for example 0.95
+	 * @param maxRatio the maximum ratio of hedged calls, for example 0.05 for at most one hedged call every twenty calls
+	 * @param endpoints the endpoints to hedge, among WSClient.PLACE_SEARCH, WSClient.PLACE_NEAREST and WSClient.PLACE_AUTOCOMPLETE
+	 */
+	public WSHedgingPolicy(double percentile, double maxRatio, String... endpoints) {
+		if (percentile <= 0 || percentile >= 1) {
+			throw new IllegalArgumentException("invalid percentile: " + percentile);
+		}
+		if (maxRatio <= 0 || maxRatio > 1) {
+			throw new IllegalArgumentException("invalid maxRatio: " + maxRatio);
+		}
+		for (String endpoint : endpoints) {
+			if (!IDEMPOTENT_ENDPOINTS.contains(endpoint)) {
+				throw new IllegalArgumentException("endpoint can not be hedged: " + endpoint);
+			}
+		}
+		this.percentile = percentile;
+		this.maxRatio = maxRatio;
+		this.endpoints = new HashSet<String>(Arrays.asList(endpoints));
+	}
+
+	/**
+	 * @return the number of hedged calls sent
+	 */
+	public synchronized long hedgeCount() {
+		return hedgeCount;
+	}
+
+	/**
+	 * @param endpoint
+	 * @return the current hedging delay of an endpoint in milliseconds, or -1 if its calls are not hedged yet
+	 */
+	public synchronized long getDelay(String endpoint) {
+		Latencies l = latencies.get(endpoint);
+		return l != null && l.delay > 0 ? java.util.concurrent.TimeUnit.NANOSECONDS.toMillis(l.delay) : -1;
+	}
+
+	/**
+	 * Earns the hedging budget of a new call.
+	 * @return the delay after which the call can be hedged in nanoseconds, or -1 if it must not be hedged
+	 */
+	synchronized long onCall(String endpoint) {
+		if (!endpoints.contains(endpoint)) {
+			return -1;
+		}
+		Latencies l = latencies(endpoint);
+		l.budget = Math.min(1, l.budget + maxRatio);
+		return l.delay > 0 ? l.delay : -1;
+	}
+
+	/**
+	 * Spends a hedge of the budget of an endpoint, if allowed.
+	 * @return true if the call can be hedged
+	 */
+	synchronized boolean acquire(String endpoint) {
+		Latencies l = latencies(endpoint);
+		if (l.budget < 1) {
+			return false;
+		}
+		l.budget -= 1;
+		hedgeCount++;
+		return true;
+	}
+
+	/**
+	 * Records the latency of a successful call.
+	 * @param endpoint
+	 * @param nanos
+	 */
+	synchronized void record(String endpoint, long nanos) {
+		if (!endpoints.contains(endpoint)) {
+			return;
+		}
+		Latencies l = latencies(endpoint);
+		l.samples[l.count++ % WINDOW] = nanos;
+		if (l.count >= 2 * WINDOW) {
+			// keep the ring position, avoid overflow
+			l.count -= WINDOW;
+		}
+		if (l.count >= MIN_SAMPLES && (l.delay == 0 || ++l.sinceUpdate >= UPDATE_INTERVAL)) {
+			int n = Math.min(l.count, WINDOW);
+			long[] sorted = Arrays.copyOf(l.samples, n);
+			Arrays.sort(sorted);
+			l.delay = Math.max(1, sorted[Math.min(n - 1, (int) Math.ceil(percentile * n) - 1)]);
+			l.sinceUpdate = 0;
+		}
+	}
+
+	private Latencies latencies(String endpoint) {
+		Latencies l = latencies.get(endpoint);
+		if (l == null) {
+			l = new Latencies();
+			latencies.put(endpoint, l);
+		}
+		return l;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "WSHedgingPolicy{" +
+				"percentile=" + percentile +
+				", maxRatio=" + maxRatio +
+				", endpoints=" + endpoints +
+				", hedgeCount=" + hedgeCount +
+				'}';
+	}
+}
@@ -0,0 +1,223 @@
+package co.oym.geokitandroid;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograms of the Web Service calls, per endpoint. <br>
+ * Each successful HTTP exchange records its latency (from sending the request to the end of the decoding), time to first byte (until the
+ * response headers), decoding time, request and response sizes, and the response time reported by the Web Service when there is one. <br>
+ * Histograms are recorded and read without locks: a snapshot is a copy of the counters, which may miss the calls being recorded while it
+ * is taken. Values are kept in logarithmic buckets with a relative precision of 25%. <br>
+ * Install it with WSClient.setMetrics(). Without metrics, calls do not pay for any measure.
+ */
+public class WSMetrics {
+
+	/** The latency of a call in microseconds, from sending the request to the end of the decoding **/
+	public static final int LATENCY = 0;
+	/** The time to first byte of a call in microseconds, from sending the request to receiving the response headers **/
+	public static final int TIME_TO_FIRST_BYTE = 1;
+	/** The decoding time of a response in microseconds, including reading its body **/
+	public static final int DECODE_TIME = 2;
+	/** The size of a request body in bytes **/
+	public static final int REQUEST_BYTES = 3;
+	/** The size of a response body in bytes, after transfer decompression **/
+	public static final int RESPONSE_BYTES = 4;
+	/** The response time reported by the Web Service in milliseconds, for place responses **/
+	public static final int SERVER_TIME = 5;
+
+	private static final int METRIC_COUNT = 6;
+	/** Values below 4 have their own bucket, then each power of 2 has 4 buckets **/
+	private static final int BUCKET_COUNT = 4 + 61 * 4;
+	/** The count, sum and max of a histogram follow its buckets **/
+	private static final int HISTOGRAM_SIZE = BUCKET_COUNT + 3;
+
+	private final ConcurrentHashMap<String, AtomicLongArray> endpoints = new ConcurrentHashMap<String, AtomicLongArray>();
+
+	/**
+	 * A copy of a histogram.
+	 */
+	public static class Snapshot {
+		/** The number of values **/
+		public final long count;
+		/** The sum of the values **/
+		public final long sum;
+		/** The maximum value **/
+		public final long max;
+		private final long[] buckets;
+
+		Snapshot(long count, long sum, long max, long[] buckets) {
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+			this.buckets = buckets;
+		}
+
+		/**
+		 * @return the mean value, or 0 if empty
+		 */
+		public double mean() {
+			return count > 0 ? (double) sum / count : 0;
+		}
+
+		/**
+		 * @param p the percentile, between 0 and 1, for example 0.99
+		 * @return an upper bound of the percentile value, within 25%, or 0 if empty
+		 */
+		public long percentile(double p) {
+			long total = 0;
+			for (long b : buckets) {
+				total += b;
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(p * total));
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					return Math.min(upperBound(i), max);
+				}
+			}
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			return "Snapshot{" +
+					"count=" + count +
+					", mean=" + Math.round(mean()) +
+					", p50=" + percentile(0.5) +
+					", p99=" + percentile(0.99) +
+					", max=" + max +
+					'}';
+		}
+	}
+
+	/**
+	 * @return the endpoints with recorded calls
+	 */
+	public List<String> getEndpoints() {
+		return new ArrayList<String>(endpoints.keySet());
+	}
+
+	/**
+	 * @param endpoint
+	 * @param metric LATENCY, TIME_TO_FIRST_BYTE, DECODE_TIME, REQUEST_BYTES, RESPONSE_BYTES or SERVER_TIME
+	 * @return a copy of the histogram of a metric of an endpoint
+	 */
+	public Snapshot snapshot(String endpoint, int metric) {
+		if (metric < 0 || metric >= METRIC_COUNT) {
+			throw new IllegalArgumentException("invalid metric: " + metric);
+		}
+		long[] buckets = new long[BUCKET_COUNT];
+		AtomicLongArray values = endpoints.get(endpoint);
+		if (values == null) {
+			return new Snapshot(0, 0, 0, buckets);
+		}
+		int base = metric * HISTOGRAM_SIZE;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = values.get(base + i);
+		}
+		return new Snapshot(values.get(base + BUCKET_COUNT), values.get(base + BUCKET_COUNT + 1), values.get(base + BUCKET_COUNT + 2), buckets);
+	}
+
+	/**
+	 * Forget every recorded value.
+	 */
+	public void reset() {
+		endpoints.clear();
+	}
+
+	/**
+	 * Records a value of a metric of an endpoint. Negative values are ignored.
+	 */
+	void record(String endpoint, int metric, long value) {
+		if (value < 0) {
+			return;
+		}
+		AtomicLongArray values = endpoints.get(endpoint);
+		if (values == null) {
+			AtomicLongArray created = new AtomicLongArray(METRIC_COUNT * HISTOGRAM_SIZE);
+			values = endpoints.putIfAbsent(endpoint, created);
+			if (values == null) {
+				values = created;
+			}
+		}
+		int base = metric * HISTOGRAM_SIZE;
+		values.incrementAndGet(base + bucket(value));
+		values.incrementAndGet(base + BUCKET_COUNT);
+		values.addAndGet(base + BUCKET_COUNT + 1, value);
+		int maxIndex = base + BUCKET_COUNT + 2;
+		long max;
+		while (value > (max = values.get(maxIndex)) && !values.compareAndSet(maxIndex, max, value)) {
+			// retry
+		}
+	}
+
+	/**
+	 * Records a duration in microseconds.
+	 */
+	void recordNanos(String endpoint, int metric, long nanos) {
+		record(endpoint, metric, nanos / 1000);
+	}
+
+	static int bucket(long value) {
+		if (value < 4) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		return 4 + (exponent - 2) * 4 + (int) ((value >>> (exponent - 2)) & 3);
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < 4) {
+			return bucket;
+		}
+		int exponent = (bucket - 4) / 4 + 2;
+		long lower = (long) (4 + (bucket - 4) % 4) << (exponent - 2);
+		return lower + (1L << (exponent - 2)) - 1;
+	}
+
+	/**
+	 * Counts the bytes read from a stream.
+	 */
+	static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package co.oym.geokitandroid;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A retry policy for transient Web Service failures. <br>
+ * Only failures known to be transient are retried: connection failures, HTTP 502, 503 and 504, and Web Service 5xx status codes.
+ * Attempts are spaced by a capped exponential backoff with full jitter (a random delay between 0 and the backoff), so clients failing
+ * together do not retry together. <br>
+ * Each endpoint has a retry budget: every call earns a fraction of a retry, and every retry spends one, so retries stay a small fraction of
+ * the traffic while a Web Service is down. A retry is never scheduled past the deadline of its call. <br>
+ * Install it with WSClient.setRetryPolicy().
+ */
+public class WSRetryPolicy {
+
+	/** The default maximum number of retries of a call **/
+	public static final int DEFAULT_MAX_RETRIES = 2;
+	/** The default backoff of the first retry, in milliseconds **/
+	public static final long DEFAULT_INITIAL_BACKOFF = 200;
+	/** The default maximum backoff, in milliseconds **/
+	public static final long DEFAULT_MAX_BACKOFF = 5000;
+	/** The default number of retries earned by a call **/
+	public static final double DEFAULT_BUDGET_RATIO = 0.1;
+	/** The default maximum number of retries saved by an endpoint **/
+	public static final int DEFAULT_MAX_BUDGET = 10;
+
+	private final int maxRetries;
+	private final long initialBackoffNanos;
+	private final long maxBackoffNanos;
+	private double budgetRatio = DEFAULT_BUDGET_RATIO;
+	private int maxBudget = DEFAULT_MAX_BUDGET;
+	/** The retries available, by endpoint **/
+	private final Map<String, Double> budgets = new HashMap<String, Double>();
+	private final Random random = new Random();
+
+	private long retryCount;
+	private long exhaustedCount;
+
+	/**
+	 * Creates a retry policy with the default settings.
+	 */
+	public WSRetryPolicy() {
+		this(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 *
+	 * @param maxRetries the maximum number of retries of a call
+	 * @param initialBackoff the backoff of the first retry, doubled for each next retry
+	 * @param maxBackoff the maximum backoff
+	 * @param unit the unit of initialBackoff and maxBackoff
+	 */
+	public WSRetryPolicy(int maxRetries, long initialBackoff, long maxBackoff, TimeUnit unit) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException("maxRetries < 0: " + maxRetries);
+		}
+		if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+			throw new IllegalArgumentException("invalid backoff: " + initialBackoff + ", " + maxBackoff);
+		}
+		this.maxRetries = maxRetries;
+		this.initialBackoffNanos = unit.toNanos(initialBackoff);
+		this.maxBackoffNanos = unit.toNanos(maxBackoff);
+	}
+
+	/**
+	 * Set the retry budget of each endpoint.
+	 * @param ratio the number of retries earned by a call, for example 0.1 for at most one retry every ten calls
+	 * @param max the maximum number of retries an endpoint can save, also available at start
+	 */
+	public synchronized void setBudget(double ratio, int max) {
+		if (ratio < 0 || max < 0) {
+			throw new IllegalArgumentException("invalid budget: " + ratio + ", " + max);
+		}
+		this.budgetRatio = ratio;
+		this.maxBudget = max;
+		for (Map.Entry<String, Double> entry : budgets.entrySet()) {
+			entry.setValue(Math.min(entry.getValue(), max));
+		}
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @return the number of retries scheduled
+	 */
+	public synchronized long retryCount() {
+		return retryCount;
+	}
+
+	/**
+	 * @return the number of transient failures not retried because the retry budget of their endpoint was spent
+	 */
+	public synchronized long exhaustedCount() {
+		return exhaustedCount;
+	}
+
+	/**
+	 * @param ex
+	 * @return true if a network failure is transient. By default connection failures are.
+	 */
+	protected boolean isTransient(IOException ex) {
+		return ex instanceof ConnectException || ex instanceof NoRouteToHostException || ex instanceof UnknownHostException;
+	}
+
+	/**
+	 * @param httpCode
+	 * @return true if an unsuccessful HTTP status code is transient. By default 502, 503 and 504 are.
+	 */
+	protected boolean isTransient(int httpCode) {
+		return httpCode == 502 || httpCode == 503 || httpCode == 504;
+	}
+
+	/**
+	 * @param statusCode
+	 * @return true if a Web Service status code is transient. By default 5xx codes are.
+	 */
+	protected boolean isTransient(String statusCode) {
+		return statusCode != null && statusCode.length() == 3 && statusCode.charAt(0) == '5';
+	}
+
+	/**
+	 * Earns the retry budget of a new call.
+	 */
+	synchronized void onCall(String endpoint) {
+		Double budget = budgets.get(endpoint);
+		budgets.put(endpoint, Math.min(maxBudget, (budget != null ? budget : maxBudget) + budgetRatio));
+	}
+
+	/**
+	 * Spends a retry of the budget of an endpoint, if allowed.
+	 * @param endpoint
+	 * @param retry the number of retries already done by the call
+	 * @param deadline the deadline of the call in System.nanoTime() time, or 0 if none
+	 * @return the delay before the retry in nanoseconds, or -1 if the call must not be retried
+	 */
+	synchronized long delay(String endpoint, int retry, long deadline) {
+		if (retry >= maxRetries) {
+			return -1;
+		}
+		// capped exponential backoff, with full jitter
+		long backoff = initialBackoffNanos << Math.min(retry, 30);
+		if (backoff <= 0 || backoff > maxBackoffNanos) {
+			backoff = maxBackoffNanos;
+		}
+		long delay = (long) (random.nextDouble() * backoff);
+		if (deadline != 0 && deadline - System.nanoTime() - delay <= 0) {
+			return -1;
+		}
+
+		Double budget = budgets.get(endpoint);
+		double available = budget != null ? budget : maxBudget;
+		if (available < 1) {
+			exhaustedCount++;
+			return -1;
+		}
+		budgets.put(endpoint, available - 1);
+		retryCount++;
+		return delay;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "WSRetryPolicy{" +
+				"maxRetries=" + maxRetries +
+				", retryCount=" + retryCount +
+				", exhaustedCount=" + exhaustedCount +
+				'}';
+	}
+}